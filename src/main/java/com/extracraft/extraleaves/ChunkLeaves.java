@@ -0,0 +1,269 @@
+package com.extracraft.extraleaves;
+
+import java.util.Arrays;
+
+/**
+ * Hojas rastreadas de un chunk: posición local (LeafPos.local) -> código.
+ *
+ * Código = distance-id (1..7) | PERSISTENT si la colocó un jugador. NONE = sin hoja.
+ * El tipo se resuelve con la tabla por distance del LeafManager, así que no se
+ * guarda ningún objeto por hoja.
+ *
+ * Almacenamiento por sección de 16³ (índice local de 12 bits):
+ *  - disperso: posiciones ordenadas (short) + código (byte), 3 bytes por hoja
+ *  - denso: 4096 códigos de 4 bits (2 KB fijos), para secciones de copa llena
+ * El cambio entre modos es automático con histéresis.
+ */
+final class ChunkLeaves {
+
+    static final int NONE = 0;
+    static final int PERSISTENT = 0x8;
+
+    // Disperso -> denso al superar este tamaño (3 B/hoja ≈ 2 KB); denso -> disperso por debajo del otro
+    private static final int TO_DENSE = 768;
+    private static final int TO_SPARSE = 512;
+
+    private Section[] sections = new Section[0];
+    private int sectionBase;
+    private int size;
+    private int persistentCount;
+
+    static int code(int distanceId, boolean persistent) {
+        return distanceId | (persistent ? PERSISTENT : 0);
+    }
+
+    static int distance(int code) {
+        return code & 7;
+    }
+
+    static boolean isPersistent(int code) {
+        return (code & PERSISTENT) != 0;
+    }
+
+    int get(int local) {
+        Section section = section(local >> 12);
+        return section == null ? NONE : section.get(local & 0xFFF);
+    }
+
+    boolean contains(int local) {
+        return get(local) != NONE;
+    }
+
+    /**
+     * @return el código anterior o NONE
+     */
+    int put(int local, int code) {
+        int sectionY = local >> 12;
+        Section section = section(sectionY);
+        if (section == null) {
+            section = new Section();
+            setSection(sectionY, section);
+        }
+
+        int previous = section.put(local & 0xFFF, code);
+        if (previous == NONE) size++;
+        if (isPersistent(previous)) persistentCount--;
+        if (isPersistent(code)) persistentCount++;
+        return previous;
+    }
+
+    /**
+     * @return el código quitado o NONE
+     */
+    int remove(int local) {
+        int sectionY = local >> 12;
+        Section section = section(sectionY);
+        if (section == null) return NONE;
+
+        int previous = section.remove(local & 0xFFF);
+        if (previous == NONE) return NONE;
+
+        size--;
+        if (isPersistent(previous)) persistentCount--;
+        if (section.size == 0) {
+            sections[sectionY - sectionBase] = null;
+        }
+        return previous;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int persistentCount() {
+        return persistentCount;
+    }
+
+    void forEach(IntIntMap.Visitor visitor) {
+        for (int i = 0; i < sections.length; i++) {
+            Section section = sections[i];
+            if (section != null) {
+                section.forEach((sectionBase + i) << 12, visitor);
+            }
+        }
+    }
+
+    /**
+     * Bytes aproximados en heap (cabeceras de objeto y arrays incluidas).
+     */
+    long estimateBytes() {
+        long bytes = 32 + 16 + 4L * sections.length;
+        for (Section section : sections) {
+            if (section != null) {
+                bytes += section.estimateBytes();
+            }
+        }
+        return bytes;
+    }
+
+    private Section section(int sectionY) {
+        int index = sectionY - sectionBase;
+        return (index < 0 || index >= sections.length) ? null : sections[index];
+    }
+
+    private void setSection(int sectionY, Section section) {
+        if (sections.length == 0) {
+            sections = new Section[1];
+            sectionBase = sectionY;
+        } else if (sectionY < sectionBase) {
+            int shift = sectionBase - sectionY;
+            Section[] grown = new Section[sections.length + shift];
+            System.arraycopy(sections, 0, grown, shift, sections.length);
+            sections = grown;
+            sectionBase = sectionY;
+        } else if (sectionY >= sectionBase + sections.length) {
+            sections = Arrays.copyOf(sections, sectionY - sectionBase + 1);
+        }
+        sections[sectionY - sectionBase] = section;
+    }
+
+    private static final class Section {
+        // Modo disperso
+        short[] positions = new short[4];
+        byte[] codes = new byte[4];
+        // Modo denso (null si disperso)
+        byte[] nibbles;
+        int size;
+
+        int get(int index) {
+            if (nibbles != null) {
+                return (nibbles[index >> 1] >> ((index & 1) << 2)) & 0xF;
+            }
+            int i = search(index);
+            return i >= 0 ? codes[i] : NONE;
+        }
+
+        int put(int index, int code) {
+            if (nibbles != null) {
+                int previous = get(index);
+                setNibble(index, code);
+                if (previous == NONE) size++;
+                return previous;
+            }
+
+            int i = search(index);
+            if (i >= 0) {
+                int previous = codes[i];
+                codes[i] = (byte) code;
+                return previous;
+            }
+
+            int insert = -(i + 1);
+            if (size == positions.length) {
+                int grown = size + (size >> 1) + 1;
+                positions = Arrays.copyOf(positions, grown);
+                codes = Arrays.copyOf(codes, grown);
+            }
+            System.arraycopy(positions, insert, positions, insert + 1, size - insert);
+            System.arraycopy(codes, insert, codes, insert + 1, size - insert);
+            positions[insert] = (short) index;
+            codes[insert] = (byte) code;
+            size++;
+
+            if (size > TO_DENSE) {
+                toDense();
+            }
+            return NONE;
+        }
+
+        int remove(int index) {
+            if (nibbles != null) {
+                int previous = get(index);
+                if (previous == NONE) return NONE;
+                setNibble(index, NONE);
+                size--;
+                if (size < TO_SPARSE) {
+                    toSparse();
+                }
+                return previous;
+            }
+
+            int i = search(index);
+            if (i < 0) return NONE;
+
+            int previous = codes[i];
+            System.arraycopy(positions, i + 1, positions, i, size - i - 1);
+            System.arraycopy(codes, i + 1, codes, i, size - i - 1);
+            size--;
+            return previous;
+        }
+
+        void forEach(int localBase, IntIntMap.Visitor visitor) {
+            if (nibbles != null) {
+                for (int index = 0; index < 4096; index++) {
+                    int code = (nibbles[index >> 1] >> ((index & 1) << 2)) & 0xF;
+                    if (code != NONE) {
+                        visitor.accept(localBase | index, code);
+                    }
+                }
+                return;
+            }
+            for (int i = 0; i < size; i++) {
+                visitor.accept(localBase | positions[i], codes[i]);
+            }
+        }
+
+        long estimateBytes() {
+            if (nibbles != null) {
+                return 32 + 16 + nibbles.length;
+            }
+            return 32 + 16 + 2L * positions.length + 16 + codes.length;
+        }
+
+        private int search(int index) {
+            return Arrays.binarySearch(positions, 0, size, (short) index);
+        }
+
+        private void setNibble(int index, int code) {
+            int i = index >> 1;
+            int shift = (index & 1) << 2;
+            nibbles[i] = (byte) ((nibbles[i] & ~(0xF << shift)) | (code << shift));
+        }
+
+        private void toDense() {
+            nibbles = new byte[2048];
+            for (int i = 0; i < size; i++) {
+                setNibble(positions[i], codes[i]);
+            }
+            positions = null;
+            codes = null;
+        }
+
+        private void toSparse() {
+            short[] sparsePositions = new short[size + (size >> 1)];
+            byte[] sparseCodes = new byte[sparsePositions.length];
+            int n = 0;
+            for (int index = 0; index < 4096; index++) {
+                int code = (nibbles[index >> 1] >> ((index & 1) << 2)) & 0xF;
+                if (code != NONE) {
+                    sparsePositions[n] = (short) index;
+                    sparseCodes[n] = (byte) code;
+                    n++;
+                }
+            }
+            positions = sparsePositions;
+            codes = sparseCodes;
+            nibbles = null;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.extracraft.extraleaves;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.type.Leaves;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Escaneo de hojas host (Iris) fuera del hilo principal.
+ *
+ *  - Hilo principal: descarte por paleta (chunk.contains) y captura del ChunkSnapshot.
+ *  - Workers: recorren solo las secciones no vacías y clasifican por distance.
+ *  - El resultado es inmutable; LeafManager lo aplica en el hilo principal con presupuesto por tick.
+ *  - Reconstrucción inicial (beginBurst/endBurst): los escaneos van a un ForkJoinPool con un
+ *    hilo por núcleo en lugar de a los workers normales, que se limitan a la mitad (máx. 4).
+ */
+final class ChunkScanner {
+
+    // La hoja coincide con un distance-id de la config (emite partículas)
+    static final byte FLAG_MATCHED = 1;
+    // El estado real no coincide con el visual (hay que reescribir el bloque)
+    static final byte FLAG_NEEDS_FIX = 2;
+    // Hay aire debajo (solo se calcula para hojas MATCHED: las que pueden emitir partículas)
+    static final byte FLAG_AIR_BELOW = 4;
+
+    private final Material hostMaterial;
+    private final List<BlockData> hostStates;
+    private final ExecutorService workers;
+    // Pool temporal de la reconstrucción inicial (null fuera de ella). Solo hilo principal.
+    private ForkJoinPool burstPool;
+
+    /**
+     * Resultado de un escaneo. Las posiciones van empaquetadas en local:
+     * ((y - minY) << 8) | (z << 4) | x
+     */
+    record ScanResult(int minY, int size, int[] positions, LeafType[] types, byte[] flags) {
+    }
+
+    ChunkScanner(Material hostMaterial) {
+        this.hostMaterial = hostMaterial;
+        this.hostStates = createHostStates(hostMaterial);
+
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "ExtraLeaves-Scan-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Los 28 estados posibles del bloque host (distance × persistent × waterlogged).
+     */
+    static List<BlockData> createHostStates(Material hostMaterial) {
+        List<BlockData> states = new ArrayList<>();
+        for (int distance = 1; distance <= 7; distance++) {
+            for (boolean persistent : new boolean[]{false, true}) {
+                for (boolean waterlogged : new boolean[]{false, true}) {
+                    BlockData data = hostMaterial.createBlockData();
+                    if (!(data instanceof Leaves leaves)) {
+                        return List.of();
+                    }
+                    leaves.setDistance(distance);
+                    leaves.setPersistent(persistent);
+                    leaves.setWaterlogged(waterlogged);
+                    states.add(leaves);
+                }
+            }
+        }
+        return List.copyOf(states);
+    }
+
+    /**
+     * Comprobación barata en el hilo principal: solo mira las paletas de las secciones.
+     */
+    boolean mayContainHost(Chunk chunk) {
+        for (BlockData state : hostStates) {
+            if (chunk.contains(state)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Bits de la huella (ver hostPaletteMask) de los estados que deja el plugin en el mundo:
+     * persistente y sin agua, uno por distance.
+     */
+    static final int CANONICAL_STATES = 0x4444444;
+
+    /**
+     * Bit de la huella del estado que deja el plugin en el mundo para un distance-id (1..7).
+     */
+    static int canonicalStateBit(int distanceId) {
+        return 1 << ((distanceId - 1) * 4 + 2);
+    }
+
+    /**
+     * Huella de la paleta: bit i = el estado host i (ver createHostStates) está en el chunk.
+     * Solo mira paletas; cambia cuando un estado host aparece o desaparece del chunk.
+     */
+    int hostPaletteMask(Chunk chunk) {
+        int mask = 0;
+        for (int i = 0; i < hostStates.size(); i++) {
+            if (chunk.contains(hostStates.get(i))) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Captura el snapshot (hilo principal) y clasifica en un worker.
+     *
+     * @param byDistance tabla indexada por distance (1..7); no se debe modificar después
+     * @param fallback   tipo para hojas host cuyo distance no está en la config (puede ser null)
+     */
+    CompletableFuture<ScanResult> scanAsync(Chunk chunk, LeafType[] byDistance, LeafType fallback) {
+        World world = chunk.getWorld();
+        int minY = world.getMinHeight();
+        int maxY = world.getMaxHeight();
+        ChunkSnapshot snapshot = chunk.getChunkSnapshot(false, false, false);
+
+        return CompletableFuture.supplyAsync(() -> classify(snapshot, minY, maxY, byDistance, fallback),
+                burstPool != null ? burstPool : workers);
+    }
+
+    /**
+     * Desde aquí los escaneos usan un pool con todos los núcleos (reconstrucción inicial).
+     *
+     * @return hilos del pool
+     */
+    int beginBurst() {
+        if (burstPool == null) {
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+            burstPool = new ForkJoinPool(threads, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("ExtraLeaves-Rebuild-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, true);
+        }
+        return burstPool.getParallelism();
+    }
+
+    /**
+     * Vuelve a los workers normales. Los escaneos ya lanzados en el pool terminan igualmente.
+     */
+    void endBurst() {
+        if (burstPool != null) {
+            burstPool.shutdown();
+            burstPool = null;
+        }
+    }
+
+    private ScanResult classify(ChunkSnapshot snapshot, int minY, int maxY, LeafType[] byDistance, LeafType fallback) {
+        int[] positions = new int[64];
+        LeafType[] types = new LeafType[64];
+        byte[] flags = new byte[64];
+        int size = 0;
+
+        int sections = (maxY - minY) >> 4;
+        for (int section = 0; section < sections; section++) {
+            if (snapshot.isSectionEmpty(section)) continue;
+
+            int sectionMinY = minY + (section << 4);
+            for (int y = sectionMinY; y < sectionMinY + 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        if (snapshot.getBlockType(x, y, z) != hostMaterial) continue;
+
+                        BlockData data = snapshot.getBlockData(x, y, z);
+                        LeafType type = null;
+                        byte flag = 0;
+
+                        if (data instanceof Leaves leaves) {
+                            int distance = leaves.getDistance();
+                            if (distance > 0 && distance < byDistance.length) {
+                                type = byDistance[distance];
+                            }
+                            if (type != null) {
+                                flag |= FLAG_MATCHED;
+                            }
+                        }
+
+                        if (type == null) {
+                            type = fallback;
+                        }
+                        if (type == null) continue;
+
+                        if (!(data instanceof Leaves leaves)
+                                || leaves.getDistance() != type.distanceId()
+                                || !leaves.isPersistent()
+                                || leaves.isWaterlogged()) {
+                            flag |= FLAG_NEEDS_FIX;
+                        }
+
+                        if ((flag & FLAG_MATCHED) != 0 && (y == minY || snapshot.getBlockType(x, y - 1, z).isAir())) {
+                            flag |= FLAG_AIR_BELOW;
+                        }
+
+                        if (size == positions.length) {
+                            int grown = size << 1;
+                            positions = Arrays.copyOf(positions, grown);
+                            types = Arrays.copyOf(types, grown);
+                            flags = Arrays.copyOf(flags, grown);
+                        }
+
+                        positions[size] = ((y - minY) << 8) | (z << 4) | x;
+                        types[size] = type;
+                        flags[size] = flag;
+                        size++;
+                    }
+                }
+            }
+        }
+
+        return new ScanResult(minY, size, positions, types, flags);
+    }
+
+    void shutdown() {
+        if (burstPool != null) {
+            burstPool.shutdownNow();
+            burstPool = null;
+        }
+        workers.shutdownNow();
+    }
+}
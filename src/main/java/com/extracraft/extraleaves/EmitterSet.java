@@ -0,0 +1,225 @@
+package com.extracraft.extraleaves;
+
+import java.util.Arrays;
+
+/**
+ * Conjunto de hojas emisoras de partículas de un chunk. Solo contiene hojas que
+ * pueden emitir ahora mismo (aire debajo); LeafManager lo mantiene con eventos.
+ *
+ *  - Arrays densos (posición local + tipo) para elegir una al azar en O(1).
+ *  - Mapa posición -> índice para añadir/quitar en O(1) (quitar = swap con la última).
+ *  - Copia inmutable (view) para el planificador de partículas; se rehace solo si hubo cambios.
+ */
+final class EmitterSet {
+
+    /**
+     * Copia inmutable de los emisores con particleAmount > 0, agrupados por tipo;
+     * segura para leer desde otros hilos.
+     *
+     * groupEnds[g] = fin (exclusivo) del grupo g en positions; weightEnds[g] = peso
+     * acumulado (cantidad × particleAmount) hasta el grupo g incluido.
+     */
+    record View(int[] positions, LeafType[] groupTypes, int[] groupEnds, int[] weightEnds) {
+        int size() {
+            return positions.length;
+        }
+
+        int totalWeight() {
+            return weightEnds.length == 0 ? 0 : weightEnds[weightEnds.length - 1];
+        }
+
+        /**
+         * Índice para un peso en [0, totalWeight): cada emisor sale con probabilidad
+         * proporcional a su particleAmount.
+         */
+        int indexForWeight(int weight) {
+            int group = groupOfWeight(weight);
+            int groupStart = group == 0 ? 0 : groupEnds[group - 1];
+            int weightStart = group == 0 ? 0 : weightEnds[group - 1];
+            return groupStart + (weight - weightStart) / groupTypes[group].particleAmount();
+        }
+
+        LeafType typeForWeight(int weight) {
+            return groupTypes[groupOfWeight(weight)];
+        }
+
+        private int groupOfWeight(int weight) {
+            int group = 0;
+            while (weight >= weightEnds[group]) {
+                group++;
+            }
+            return group;
+        }
+    }
+
+    private int[] positions;
+    private LeafType[] types;
+    private final IntIntMap indexByPos;
+    private int size;
+    private View view;
+
+    EmitterSet() {
+        this(8);
+    }
+
+    EmitterSet(int expected) {
+        int capacity = Math.max(4, expected);
+        this.positions = new int[capacity];
+        this.types = new LeafType[capacity];
+        this.indexByPos = new IntIntMap(-1, capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean contains(int local) {
+        return indexByPos.containsKey(local);
+    }
+
+    /**
+     * Añade la posición o actualiza su tipo si ya estaba.
+     */
+    void put(int local, LeafType type) {
+        int existing = indexByPos.get(local);
+        view = null;
+        if (existing >= 0) {
+            types[existing] = type;
+            return;
+        }
+
+        if (size == positions.length) {
+            int grown = size << 1;
+            positions = Arrays.copyOf(positions, grown);
+            types = Arrays.copyOf(types, grown);
+        }
+
+        positions[size] = local;
+        types[size] = type;
+        indexByPos.put(local, size);
+        size++;
+    }
+
+    /**
+     * Quita la posición moviendo la última entrada a su hueco.
+     */
+    boolean remove(int local) {
+        int index = indexByPos.remove(local);
+        if (index < 0) {
+            return false;
+        }
+
+        view = null;
+        int last = --size;
+        if (index != last) {
+            int moved = positions[last];
+            positions[index] = moved;
+            types[index] = types[last];
+            indexByPos.put(moved, index);
+        }
+        types[last] = null;
+        return true;
+    }
+
+    void clear() {
+        Arrays.fill(types, 0, size, null);
+        indexByPos.clear();
+        size = 0;
+        view = null;
+    }
+
+    /**
+     * Cambia cada tipo por el de la tabla con su mismo distance-id (reload con cambios
+     * solo cosméticos: nombre, color, cantidad de partículas...). Los distance sin tipo
+     * en la tabla se dejan como estaban.
+     */
+    void rebind(LeafType[] typesByDistance) {
+        for (int i = 0; i < size; i++) {
+            LeafType replacement = typesByDistance[types[i].distanceId()];
+            if (replacement != null) {
+                types[i] = replacement;
+            }
+        }
+        view = null;
+    }
+
+    /**
+     * Copia inmutable actual; la misma instancia mientras no haya cambios.
+     */
+    View view() {
+        if (view == null) {
+            view = buildView();
+        }
+        return view;
+    }
+
+    private View buildView() {
+        // Tipos distintos (hay pocos: uno por distance-id)
+        LeafType[] groupTypes = new LeafType[4];
+        int[] counts = new int[4];
+        int groups = 0;
+        for (int i = 0; i < size; i++) {
+            LeafType type = types[i];
+            if (type.particleAmount() <= 0) continue;
+
+            int g = 0;
+            while (g < groups && groupTypes[g] != type) g++;
+            if (g == groups) {
+                if (groups == groupTypes.length) {
+                    groupTypes = Arrays.copyOf(groupTypes, groups << 1);
+                    counts = Arrays.copyOf(counts, groups << 1);
+                }
+                groupTypes[groups++] = type;
+            }
+            counts[g]++;
+        }
+
+        int[] groupEnds = new int[groups];
+        int[] weightEnds = new int[groups];
+        int[] cursor = new int[groups];
+        int end = 0;
+        int weight = 0;
+        for (int g = 0; g < groups; g++) {
+            cursor[g] = end;
+            end += counts[g];
+            weight += counts[g] * groupTypes[g].particleAmount();
+            groupEnds[g] = end;
+            weightEnds[g] = weight;
+        }
+
+        int[] grouped = new int[end];
+        for (int i = 0; i < size; i++) {
+            LeafType type = types[i];
+            if (type.particleAmount() <= 0) continue;
+
+            int g = 0;
+            while (groupTypes[g] != type) g++;
+            grouped[cursor[g]++] = positions[i];
+        }
+
+        return new View(grouped, Arrays.copyOf(groupTypes, groups), groupEnds, weightEnds);
+    }
+
+    /**
+     * Bytes aproximados en heap (cabeceras de objeto y arrays incluidas).
+     */
+    long estimateBytes() {
+        long bytes = 40 + (16 + 4L * positions.length) + (16 + 4L * types.length) + indexByPos.estimateBytes();
+        if (view != null) {
+            bytes += 16 + 16 + 4L * view.size() + 3 * (16 + 4L * view.groupEnds().length);
+        }
+        return bytes;
+    }
+
+    int positionAt(int index) {
+        return positions[index];
+    }
+
+    LeafType typeAt(int index) {
+        return types[index];
+    }
+}
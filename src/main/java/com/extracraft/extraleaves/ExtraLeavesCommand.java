@@ -8,6 +8,7 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Locale;
 import java.util.logging.Level;
 
@@ -25,6 +26,12 @@ public class ExtraLeavesCommand implements CommandExecutor {
 
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        // El nivel de partículas propio lo puede cambiar cualquiera con extraleaves.particles
+        if (args.length > 0 && args[0].equalsIgnoreCase("particles")) {
+            handleParticles(sender, args);
+            return true;
+        }
+
         if (!sender.hasPermission("extraleaves.use")) {
             sender.sendMessage(ChatColor.RED + "No tienes permiso para usar este comando.");
             return true;
@@ -40,6 +47,9 @@ public class ExtraLeavesCommand implements CommandExecutor {
             case "reload" -> handleReload(sender);
             case "pack" -> handlePack(sender);
             case "give" -> handleGive(sender, args);
+            case "refresh" -> handleRefresh(sender);
+            case "memory" -> handleMemory(sender);
+            case "stats" -> handleStats(sender);
             default -> sendHelp(sender, label);
         }
 
@@ -54,24 +64,33 @@ public class ExtraLeavesCommand implements CommandExecutor {
                 + ChatColor.GRAY + " - Regenera solo el resourcepack");
         sender.sendMessage(ChatColor.YELLOW + "/" + label + " give <jugador> <leafId> [cantidad]"
                 + ChatColor.GRAY + " - Da hojas custom");
+        sender.sendMessage(ChatColor.YELLOW + "/" + label + " refresh"
+                + ChatColor.GRAY + " - Repinta todas las hojas cargadas (depuración)");
+        sender.sendMessage(ChatColor.YELLOW + "/" + label + " memory"
+                + ChatColor.GRAY + " - Memoria usada por el índice de hojas por mundo");
+        sender.sendMessage(ChatColor.YELLOW + "/" + label + " stats"
+                + ChatColor.GRAY + " - Estadísticas de guardado, eventos y partículas");
+        sender.sendMessage(ChatColor.YELLOW + "/" + label + " particles <off|low|normal|high>"
+                + ChatColor.GRAY + " - Cantidad de partículas de hojas que ves");
     }
 
     private void handleReload(CommandSender sender) {
         long start = System.currentTimeMillis();
         sender.sendMessage(ChatColor.YELLOW + "[ExtraLeaves] Recargando config y hojas...");
 
-        leafManager.reload();
-
-        try {
-            packGenerator.generatePack();
-            long ms = System.currentTimeMillis() - start;
-            sender.sendMessage(ChatColor.GREEN + "[ExtraLeaves] Recargado todo y resourcepack regenerado en " + ms + " ms.");
-            sender.sendMessage(ChatColor.GRAY + "Ruta del pack: "
-                    + packGenerator.getOutputFolder().toAbsolutePath());
-        } catch (IOException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error al regenerar el resourcepack.", e);
-            sender.sendMessage(ChatColor.RED + "[ExtraLeaves] Error al regenerar el resourcepack. Revisa la consola.");
-        }
+        // El índice se reconstruye por ticks; el pack se regenera cuando ya usa los tipos nuevos
+        leafManager.reload(sender, () -> {
+            try {
+                packGenerator.generatePack();
+                long ms = System.currentTimeMillis() - start;
+                sender.sendMessage(ChatColor.GREEN + "[ExtraLeaves] Recargado todo y resourcepack regenerado en " + ms + " ms.");
+                sender.sendMessage(ChatColor.GRAY + "Ruta del pack: "
+                        + packGenerator.getOutputFolder().toAbsolutePath());
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Error al regenerar el resourcepack.", e);
+                sender.sendMessage(ChatColor.RED + "[ExtraLeaves] Error al regenerar el resourcepack. Revisa la consola.");
+            }
+        });
     }
 
     private void handlePack(CommandSender sender) {
@@ -87,6 +106,113 @@ public class ExtraLeavesCommand implements CommandExecutor {
         }
     }
 
+    private void handleRefresh(CommandSender sender) {
+        int queued = leafManager.queueFullRefresh();
+        sender.sendMessage(ChatColor.GREEN + "[ExtraLeaves] Encoladas " + queued + " hojas para repintar.");
+        sender.sendMessage(ChatColor.GRAY + "Pendientes en cola: " + leafManager.getReskinQueueSize());
+    }
+
+    private void handleMemory(CommandSender sender) {
+        List<LeafManager.WorldMemory> stats = leafManager.getMemoryStats();
+        if (stats.isEmpty()) {
+            sender.sendMessage(ChatColor.GRAY + "[ExtraLeaves] No hay chunks rastreados.");
+            return;
+        }
+
+        sender.sendMessage(ChatColor.GOLD + "[ExtraLeaves] Memoria del índice de hojas:");
+        for (LeafManager.WorldMemory world : stats) {
+            sender.sendMessage(ChatColor.YELLOW + world.worldName()
+                    + ChatColor.GRAY + ": " + world.chunks() + " chunks, "
+                    + world.leaves() + " hojas, " + world.emitters() + " emisores");
+            sender.sendMessage(ChatColor.GRAY + "  actual: " + ChatColor.GREEN + formatBytes(world.bytes())
+                    + ChatColor.GRAY + " | formato anterior (estimado): " + ChatColor.RED + formatBytes(world.legacyBytes()));
+        }
+    }
+
+    private void handleStats(CommandSender sender) {
+        LeafManager.PersistenceStats persistence = leafManager.getPersistenceStats();
+        sender.sendMessage(ChatColor.GOLD + "[ExtraLeaves] Estadísticas:");
+        sender.sendMessage(ChatColor.YELLOW + "Guardado" + ChatColor.GRAY + ": "
+                + persistence.pendingChunks() + " chunks pendientes, "
+                + persistence.flushes() + " vaciados, "
+                + persistence.writtenChunks() + " chunks escritos");
+        long average = persistence.flushes() == 0 ? 0 : persistence.totalFlushNanos() / persistence.flushes();
+        sender.sendMessage(ChatColor.GRAY + "  último: " + formatMillis(persistence.lastFlushNanos())
+                + " | medio: " + formatMillis(average)
+                + " | máximo: " + formatMillis(persistence.maxFlushNanos()));
+
+        LeafManager.PhysicsStats physics = leafManager.getPhysicsStats();
+        sender.sendMessage(ChatColor.YELLOW + "Physics" + ChatColor.GRAY + ": "
+                + physics.seen() + " vistos, "
+                + physics.cancelled() + " cancelados, "
+                + physics.notHost() + " sin bloque host");
+
+        ParticleThrottle.Budget budget = leafManager.getParticleBudget();
+        sender.sendMessage(ChatColor.YELLOW + "Partículas" + ChatColor.GRAY + ": "
+                + budget.maxPerTick() + " por tick, "
+                + budget.maxPerPlayer() + " por jugador"
+                + (budget.enabled() ? "" : " (adaptativo desactivado)"));
+        sender.sendMessage(ChatColor.GRAY + String.format(Locale.ROOT, "  escala: %.2f | MSPT: %.1f | TPS: %.1f",
+                budget.scale(), budget.mspt(), budget.tps()));
+
+        LeafManager.SchedulerStats scheduler = leafManager.getSchedulerStats();
+        sender.sendMessage(ChatColor.YELLOW + "Trabajo por tick" + ChatColor.GRAY + ": presupuesto "
+                + formatMillis(scheduler.budgetNanos())
+                + " | último: " + formatMillis(scheduler.lastTickNanos())
+                + " | máximo: " + formatMillis(scheduler.maxTickNanos()));
+        for (LeafWorkScheduler.TaskStats task : scheduler.tasks()) {
+            long taskAverage = task.runs() == 0 ? 0 : task.totalNanos() / task.runs();
+            sender.sendMessage(ChatColor.GRAY + "  " + task.name() + ": medio " + formatMillis(taskAverage)
+                    + " | máximo " + formatMillis(task.maxNanos())
+                    + " | sin turno " + task.skippedTicks() + " ticks");
+        }
+
+        LeafManager.IndexingStats indexing = leafManager.getIndexingStats();
+        sender.sendMessage(ChatColor.YELLOW + "Indexado" + ChatColor.GRAY + ": "
+                + (indexing.lazy() ? "lazy (radio " + indexing.radius() + " chunks)" : "eager")
+                + " | chunks: " + indexing.trackedChunks()
+                + " | sin leer: " + indexing.deferredChunks()
+                + " | en cola: " + indexing.queuedChunks());
+    }
+
+    private void handleParticles(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("extraleaves.particles")) {
+            sender.sendMessage(ChatColor.RED + "No tienes permiso para usar este comando.");
+            return;
+        }
+        if (!(sender instanceof Player player)) {
+            sender.sendMessage(ChatColor.RED + "Solo los jugadores pueden elegir su nivel de partículas.");
+            return;
+        }
+
+        if (args.length < 2) {
+            sender.sendMessage(ChatColor.GRAY + "Nivel de partículas actual: "
+                    + ChatColor.GREEN + leafManager.getParticleLevel(player).id());
+            sender.sendMessage(ChatColor.RED + "Uso: /extraleaves particles <off|low|normal|high>");
+            return;
+        }
+
+        ParticleLevel level = ParticleLevel.fromId(args[1]);
+        if (level == null) {
+            sender.sendMessage(ChatColor.RED + "Nivel desconocido: " + args[1]);
+            sender.sendMessage(ChatColor.RED + "Uso: /extraleaves particles <off|low|normal|high>");
+            return;
+        }
+
+        leafManager.setParticleLevel(player, level);
+        sender.sendMessage(ChatColor.GREEN + "[ExtraLeaves] Nivel de partículas: " + level.id());
+    }
+
+    private String formatMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.2f ms", nanos / 1_000_000.0);
+    }
+
+    private String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
     private void handleGive(CommandSender sender, String[] args) {
         if (args.length < 3) {
             sender.sendMessage(ChatColor.RED + "Uso: /extraleaves give <jugador> <leafId> [cantidad]");
@@ -14,6 +14,8 @@ public class ExtraLeavesPlugin extends JavaPlugin {
 
     @Override
     public void onEnable() {
+        long start = System.nanoTime();
+
         // Config + carpetas
         saveDefaultConfig();
 
@@ -48,11 +50,15 @@ public class ExtraLeavesPlugin extends JavaPlugin {
             getLogger().log(Level.SEVERE, "No se pudo generar el resourcepack de ExtraLeaves al iniciar.", e);
         }
 
-        getLogger().info("ExtraLeaves habilitado. Bloque host: " + leafManager.getHostMaterial().name());
+        getLogger().info("ExtraLeaves habilitado en " + (System.nanoTime() - start) / 1_000_000L
+                + " ms. Bloque host: " + leafManager.getHostMaterial().name());
     }
 
     @Override
     public void onDisable() {
+        if (leafManager != null) {
+            leafManager.shutdown();
+        }
         getLogger().info("ExtraLeaves deshabilitado.");
     }
 
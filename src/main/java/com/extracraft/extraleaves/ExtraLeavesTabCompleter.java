@@ -21,21 +21,39 @@ public class ExtraLeavesTabCompleter implements TabCompleter {
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
         List<String> completions = new ArrayList<>();
+        boolean admin = sender.hasPermission("extraleaves.use");
+        boolean particles = sender.hasPermission("extraleaves.particles");
 
-        if (!sender.hasPermission("extraleaves.use")) {
+        if (args.length == 1) {
+            String prefix = args[0].toLowerCase(Locale.ROOT);
+            if (admin) {
+                for (String opt : List.of("reload", "pack", "give", "refresh", "memory", "stats")) {
+                    if (opt.startsWith(prefix)) {
+                        completions.add(opt);
+                    }
+                }
+            }
+            if (particles && "particles".startsWith(prefix)) {
+                completions.add("particles");
+            }
             return completions;
         }
 
-        if (args.length == 1) {
-            String prefix = args[0].toLowerCase(Locale.ROOT);
-            for (String opt : List.of("reload", "pack", "give")) {
-                if (opt.startsWith(prefix)) {
-                    completions.add(opt);
+        if (args.length == 2 && args[0].equalsIgnoreCase("particles")) {
+            if (!particles) return completions;
+            String prefix = args[1].toLowerCase(Locale.ROOT);
+            for (ParticleLevel level : ParticleLevel.values()) {
+                if (level.id().startsWith(prefix)) {
+                    completions.add(level.id());
                 }
             }
             return completions;
         }
 
+        if (!admin) {
+            return completions;
+        }
+
         if (args.length == 2 && args[0].equalsIgnoreCase("give")) {
             String prefix = args[1].toLowerCase(Locale.ROOT);
             for (Player p : Bukkit.getOnlinePlayers()) {
@@ -0,0 +1,186 @@
+package com.extracraft.extraleaves;
+
+import java.util.Arrays;
+
+/**
+ * Mapa int -> int con direccionamiento abierto (sondeo lineal), sin boxing.
+ *
+ *  - Integer.MIN_VALUE está reservado como clave vacía (LeafPos.local nunca lo produce).
+ *  - get/put/remove devuelven missingValue cuando la clave no existe.
+ *  - No es thread-safe; se usa solo desde el hilo principal.
+ */
+final class IntIntMap {
+
+    interface Visitor {
+        void accept(int key, int value);
+    }
+
+    static final int EMPTY_KEY = Integer.MIN_VALUE;
+    private static final int MIN_CAPACITY = 8;
+
+    private final int missingValue;
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int resizeAt;
+    private int size;
+
+    IntIntMap(int missingValue) {
+        this(missingValue, MIN_CAPACITY);
+    }
+
+    IntIntMap(int missingValue, int expected) {
+        this.missingValue = missingValue;
+        allocate(capacityFor(expected));
+    }
+
+    private static int capacityFor(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity - (capacity >> 2) < expected) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY_KEY);
+        values = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = capacity - (capacity >> 2);
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int get(int key) {
+        int slot = mix(key) & mask;
+        int current;
+        while ((current = keys[slot]) != EMPTY_KEY) {
+            if (current == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    boolean containsKey(int key) {
+        int slot = mix(key) & mask;
+        int current;
+        while ((current = keys[slot]) != EMPTY_KEY) {
+            if (current == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    int put(int key, int value) {
+        int slot = mix(key) & mask;
+        int current;
+        while ((current = keys[slot]) != EMPTY_KEY) {
+            if (current == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return missingValue;
+    }
+
+    int remove(int key) {
+        int slot = mix(key) & mask;
+        int current;
+        while ((current = keys[slot]) != EMPTY_KEY) {
+            if (current == key) {
+                int previous = values[slot];
+                shiftKeys(slot);
+                size--;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    /**
+     * Bytes aproximados en heap (cabeceras de objeto y arrays incluidas).
+     */
+    long estimateBytes() {
+        return 40 + 2 * (16 + 4L * keys.length);
+    }
+
+    void clear() {
+        if (size == 0) return;
+        Arrays.fill(keys, EMPTY_KEY);
+        size = 0;
+    }
+
+    void forEach(Visitor visitor) {
+        int[] k = keys;
+        int[] v = values;
+        for (int slot = 0; slot < k.length; slot++) {
+            if (k[slot] != EMPTY_KEY) {
+                visitor.accept(k[slot], v[slot]);
+            }
+        }
+    }
+
+    private void shiftKeys(int slot) {
+        while (true) {
+            int last = slot;
+            slot = (slot + 1) & mask;
+            int current;
+            while (true) {
+                if ((current = keys[slot]) == EMPTY_KEY) {
+                    keys[last] = EMPTY_KEY;
+                    return;
+                }
+                int ideal = mix(current) & mask;
+                if (last <= slot ? (last >= ideal || ideal > slot) : (last >= ideal && ideal > slot)) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[last] = current;
+            values[last] = values[slot];
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            int key = oldKeys[i];
+            if (key == EMPTY_KEY) continue;
+
+            int slot = mix(key) & mask;
+            while (keys[slot] != EMPTY_KEY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = oldValues[i];
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.extracraft.extraleaves;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Formato binario de las hojas colocadas por jugadores en el PDC del chunk.
+ *
+ * <pre>
+ * byte    versión (1)
+ * varint  tamaño de la paleta
+ *         por entrada: varint longitud + id en UTF-8
+ * varint  cantidad de secciones
+ *         por sección: varint zigzag sectionY, varint cantidad,
+ *                      por hoja: varint delta del índice local (12 bits, ordenado) + varint índice de paleta
+ * </pre>
+ *
+ * Las posiciones son locales a la sección, así que nunca pueden caer fuera del chunk.
+ */
+final class LeafChunkCodec {
+
+    static final byte VERSION = 1;
+
+    interface Visitor {
+        void accept(int local, LeafType type);
+    }
+
+    private LeafChunkCodec() {
+    }
+
+    /**
+     * Codifica solo las hojas persistentes. Devuelve null si no hay ninguna.
+     */
+    static byte[] encode(ChunkLeaves leaves, LeafType[] typesByDistance) {
+        int count = leaves.persistentCount();
+        if (count == 0) {
+            return null;
+        }
+
+        // forEach recorre secciones de abajo a arriba e índices en orden: locals queda ordenado
+        int[] locals = new int[count];
+        int[] distances = new int[count];
+        int[] n = {0};
+        leaves.forEach((local, code) -> {
+            if (!ChunkLeaves.isPersistent(code) || n[0] == count) return;
+            locals[n[0]] = local;
+            distances[n[0]] = ChunkLeaves.distance(code);
+            n[0]++;
+        });
+
+        // Paleta: distance -> índice (como mucho 7 tipos)
+        int[] paletteIndex = new int[8];
+        Arrays.fill(paletteIndex, -1);
+        LeafType[] palette = new LeafType[8];
+        int paletteSize = 0;
+        for (int i = 0; i < n[0]; i++) {
+            int distance = distances[i];
+            if (paletteIndex[distance] < 0 && typesByDistance[distance] != null) {
+                paletteIndex[distance] = paletteSize;
+                palette[paletteSize++] = typesByDistance[distance];
+            }
+        }
+
+        Writer out = new Writer(16 + count * 2);
+        out.writeByte(VERSION);
+
+        out.writeVarInt(paletteSize);
+        for (int i = 0; i < paletteSize; i++) {
+            byte[] id = palette[i].id().getBytes(StandardCharsets.UTF_8);
+            out.writeVarInt(id.length);
+            out.writeBytes(id);
+        }
+
+        int sectionCount = 0;
+        for (int i = 0; i < n[0]; i++) {
+            if (paletteIndex[distances[i]] >= 0 && (i == 0 || (locals[i] >> 12) != (locals[i - 1] >> 12))) {
+                sectionCount++;
+            }
+        }
+        out.writeVarInt(sectionCount);
+
+        int i = 0;
+        while (i < n[0]) {
+            int sectionY = locals[i] >> 12;
+            int end = i;
+            int entries = 0;
+            while (end < n[0] && (locals[end] >> 12) == sectionY) {
+                if (paletteIndex[distances[end]] >= 0) entries++;
+                end++;
+            }
+
+            if (entries > 0) {
+                out.writeVarInt((sectionY << 1) ^ (sectionY >> 31));
+                out.writeVarInt(entries);
+                int previous = 0;
+                for (int j = i; j < end; j++) {
+                    int index = paletteIndex[distances[j]];
+                    if (index < 0) continue;
+                    int sectionIndex = locals[j] & 0xFFF;
+                    out.writeVarInt(sectionIndex - previous);
+                    out.writeVarInt(index);
+                    previous = sectionIndex;
+                }
+            }
+            i = end;
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodifica y entrega cada hoja al visitor. Las entradas con ids que ya no
+     * existen en la config se ignoran.
+     *
+     * @throws IllegalArgumentException si la versión es desconocida o los datos están truncados
+     */
+    static void decode(byte[] data, Map<String, LeafType> byId, Visitor visitor) {
+        Reader in = new Reader(data);
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Versión de datos de hojas desconocida: " + version);
+        }
+
+        int paletteSize = in.readVarInt();
+        if (paletteSize < 0) {
+            throw new IllegalArgumentException("Datos de hojas corruptos");
+        }
+        LeafType[] palette = new LeafType[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            int length = in.readVarInt();
+            palette[i] = byId.get(in.readString(length));
+        }
+
+        int sections = in.readVarInt();
+        for (int s = 0; s < sections; s++) {
+            int zigzag = in.readVarInt();
+            int sectionY = (zigzag >>> 1) ^ -(zigzag & 1);
+            int entries = in.readVarInt();
+
+            int sectionIndex = 0;
+            for (int e = 0; e < entries; e++) {
+                sectionIndex += in.readVarInt();
+                int index = in.readVarInt();
+                if (sectionIndex < 0 || sectionIndex > 0xFFF || index < 0 || index >= paletteSize) {
+                    throw new IllegalArgumentException("Datos de hojas corruptos");
+                }
+
+                LeafType type = palette[index];
+                if (type != null) {
+                    visitor.accept((sectionY << 12) | sectionIndex, type);
+                }
+            }
+        }
+    }
+
+    private static final class Writer {
+        private byte[] buffer;
+        private int size;
+
+        Writer(int capacity) {
+            this.buffer = new byte[Math.max(16, capacity)];
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + extra));
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            if (position >= data.length) {
+                throw new IllegalArgumentException("Datos de hojas truncados");
+            }
+            return data[position++];
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("VarInt demasiado largo");
+        }
+
+        String readString(int length) {
+            if (length < 0 || position + length > data.length) {
+                throw new IllegalArgumentException("Datos de hojas truncados");
+            }
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
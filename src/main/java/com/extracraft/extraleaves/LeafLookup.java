@@ -0,0 +1,32 @@
+package com.extracraft.extraleaves;
+
+/**
+ * Resultado de una consulta de hoja que no fuerza cargas de chunk.
+ *
+ *  - LEAF: hay una hoja custom (type no es null)
+ *  - NONE: el chunk está cargado y no hay hoja en esa posición
+ *  - UNKNOWN: el chunk no está cargado/rastreado, no se puede saber sin cargarlo
+ */
+public record LeafLookup(Status status, LeafType type) {
+
+    public enum Status {
+        LEAF,
+        NONE,
+        UNKNOWN
+    }
+
+    public static final LeafLookup NONE = new LeafLookup(Status.NONE, null);
+    public static final LeafLookup UNKNOWN = new LeafLookup(Status.UNKNOWN, null);
+
+    static LeafLookup of(LeafType type) {
+        return type == null ? NONE : new LeafLookup(Status.LEAF, type);
+    }
+
+    public boolean isLeaf() {
+        return status == Status.LEAF;
+    }
+
+    public boolean isKnown() {
+        return status != Status.UNKNOWN;
+    }
+}
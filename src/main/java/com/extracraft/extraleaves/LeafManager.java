@@ -12,7 +12,9 @@ import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.Waterlogged;
 import org.bukkit.block.data.type.Leaves;
+import org.bukkit.command.CommandSender;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
@@ -20,18 +22,32 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFadeEvent;
 import org.bukkit.event.block.BlockPlaceEvent;
 import org.bukkit.event.block.BlockPhysicsEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.LeavesDecayEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerBucketEmptyEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.world.ChunkLoadEvent;
 import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldSaveEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.persistence.PersistentDataContainer;
 import org.bukkit.persistence.PersistentDataType;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
 
 /**
  * Maneja:
@@ -50,17 +66,37 @@ public class LeafManager implements Listener {
     private static final int MAX_RESENDS_PER_TICK = 800;
 
     private static final int PARTICLE_TICK_INTERVAL = 1;
-    private static final double PARTICLE_FALL_SPEED = 0.02;
-    private static final double PARTICLE_DRIFT = 0.02;
-    private static final double PARTICLE_DOWNWARD_SPEED = -0.04;
-    private static final int PARTICLE_ATTEMPTS_MULTIPLIER = 4;
+
+    // Cada cuántas hojas se mira el deadline al aplicar escaneos / repintar
+    private static final int SCAN_APPLY_CHECK_INTERVAL = 256;
+    private static final int RESKIN_CHECK_INTERVAL = 32;
+
+    // indexing.mode: lazy — cada cuántos ticks se recalcula la cola de chunks cerca de jugadores
+    private static final int LAZY_INDEX_INTERVAL = 10;
+
+    // Marcador de escaneo en el PDC del chunk. Subir la versión invalida todos los marcadores.
+    // v3: el marcador va acompañado de la huella de paleta del bloque host (leaf_scan_palette)
+    private static final int SCAN_MARKER_VERSION = 3;
+    // Hojas naturales cacheadas: bits 0..19 posición local, 20..22 distance-id del tipo, 23 emisor (aire debajo)
+    private static final int NATURAL_DISTANCE_SHIFT = 20;
+    private static final int NATURAL_EMITTER_BIT = 1 << 23;
+
+    // Estimación del formato anterior (HashMap<BlockKey, LeafEntry>): nodo + BlockKey + LeafEntry + hueco de tabla
+    private static final int LEGACY_BYTES_PER_LEAF = 88;
+    private static final int LEGACY_BYTES_PER_EMITTER = 64;
 
     private int particleChunkRadius = 3;
     private int maxParticlesPerTick = 40;
     private int maxParticlesPerPlayer = 3;
     private double particlePlayerRadius = 48.0;
     private double particlePlayerRadiusSquared = particlePlayerRadius * particlePlayerRadius;
-    private int maxParticleAmount = 1;
+    // Partículas por segundo esperadas de una hoja con particle-amount 1
+    private double particleRatePerLeaf = 0.02;
+    // Contador de ticks de spawnLeafParticles (reloj de los temporizadores de emisión)
+    private long particleTick;
+
+    // Guardado diferido de hojas colocadas (0 = solo al descargar chunk, guardar mundo o apagar)
+    private int flushIntervalSeconds = 30;
 
     // Bloque host real (Iris + plugin usan AZALEA_LEAVES)
     private final Material hostMaterial = Material.AZALEA_LEAVES;
@@ -68,15 +104,70 @@ public class LeafManager implements Listener {
     // Claves PDC
     private final NamespacedKey itemIdKey;
     private final NamespacedKey chunkDataKey;
-
-    // Tipos de hojas desde config
-    private final Map<String, LeafType> byId = new HashMap<>();
-    private final Map<Integer, LeafType> byDistance = new HashMap<>();
-
-    // ChunkKey -> (BlockKey -> LeafEntry)
-    private final Map<ChunkKey, Map<BlockKey, LeafEntry>> leavesByChunk = new HashMap<>();
-    // ChunkKey -> (BlockKey -> LeafEntry) hojas que pueden emitir partículas
-    private final Map<ChunkKey, Map<BlockKey, LeafEntry>> particleLeavesByChunk = new HashMap<>();
+    private final NamespacedKey scanMarkerKey;
+    private final NamespacedKey naturalLeavesKey;
+    private final NamespacedKey scanPaletteKey;
+    private final NamespacedKey particleLevelKey;
+
+    // Tipos de hojas y modos desde config (inmutable; un reload la sustituye entera al terminar).
+    // volatile: getRegistry() se lee desde hilos async (pack, otros plugins)
+    private volatile LeafConfig config = new LeafConfig(LeafRegistry.EMPTY, false, false);
+    private PacketVisualLayer visualLayer;
+    // Reload en curso: índice nuevo construyéndose por ticks (null = ninguno)
+    private ReloadJob reloadJob;
+
+    // Mundo -> (chunk empaquetado -> hojas rastreadas + emisores del chunk)
+    private Map<UUID, LongObjectMap<TrackedChunk>> chunksByWorld = new HashMap<>();
+
+    // Escaneos async de hojas host: resultados listos para aplicar
+    private final ChunkScanner scanner;
+    private final Queue<PendingScan> completedScans = new ConcurrentLinkedQueue<>();
+    private PendingScan applyingScan;
+    // Posiciones pendientes de repintar (FIFO sin duplicados), drenadas con MAX_RESENDS_PER_TICK
+    private final Set<ReskinPos> reskinQueue = new LinkedHashSet<>();
+
+    // Trabajo de fondo del hilo principal con presupuesto por tick (scheduler.tick-budget-ms)
+    private final LeafWorkScheduler workScheduler = new LeafWorkScheduler(5_000_000L);
+    // Chunks cargados cuyo PDC/marcador aún no se ha leído (ver completeChunkLoad)
+    private final ArrayDeque<TrackedChunk> pendingChunkLoads = new ArrayDeque<>();
+    // Chunks ya cargados al arrancar, pendientes de pasar por onChunkLoad
+    private final ArrayDeque<Chunk> pendingRebuild = new ArrayDeque<>();
+    // Reconstrucción inicial en curso (null al terminar)
+    private StartupRebuild startupRebuild;
+    // indexing.mode: lazy = un chunk solo se lee/escanea al entrar en indexing.radius de un jugador
+    private boolean lazyIndexing;
+    private int lazyIndexRadius = 8;
+    private int lazyIndexCountdown;
+
+    // Chunks con hojas colocadas pendientes de escribir en el PDC (sin duplicados: ver persistentDirty)
+    private final List<TrackedChunk> dirtyChunks = new ArrayList<>();
+    // Vaciado periódico en curso (se reparte entre ticks)
+    private boolean periodicFlushRunning;
+    private long lastFlushMillis = System.currentTimeMillis();
+    private long flushCount;
+    private long flushedChunks;
+    private long lastFlushNanos;
+    private long maxFlushNanos;
+    private long totalFlushNanos;
+
+    // Contadores de BlockPhysicsEvent (solo hilo principal)
+    private long physicsSeen;
+    private long physicsCancelled;
+    private long physicsNotHost;
+
+    // Planificación de partículas en un worker; la lista se reutiliza al construir la foto
+    private final ParticlePlanner particlePlanner;
+    private final List<ParticlePlanner.ChunkView> particleChunkScratch = new ArrayList<>();
+    // Jugador -> chunks rastreados dentro de particleChunkRadius (se rehace al cruzar de chunk o al cargar/descargar)
+    private final Map<UUID, PlayerParticleIndex> particleIndexByPlayer = new HashMap<>();
+    // Nivel de partículas de cada jugador conectado (copia del PDC del jugador)
+    private final Map<UUID, ParticleLevel> particleLevels = new HashMap<>();
+    private final List<Player> particlePlayerScratch = new ArrayList<>();
+    private int[] particleSendScratch = new int[0];
+    // particles.adaptive: escala max-per-tick/max-per-player según MSPT, TPS y ping
+    private final ParticleThrottle particleThrottle = new ParticleThrottle();
+    // particles.packet-bundles: partículas por PacketEvents en un bundle por jugador (null = API de Bukkit)
+    private PacketParticleSender packetParticles;
 
     // Drops al romper con la mano
     private static class HandDrop {
@@ -95,30 +186,272 @@ public class LeafManager implements Listener {
 
     private final List<HandDrop> handDrops = new ArrayList<>();
 
-    // Claves auxiliares para map
-    private record ChunkKey(UUID worldId, int x, int z) {}
-    private record BlockKey(int x, int y, int z) {}
-    private record LeafEntry(LeafType type, boolean persistent) {}
+    private record ReskinPos(UUID worldId, int x, int y, int z) {}
+
+    /**
+     * Uso de memoria del índice de un mundo. legacyBytes es la estimación con el
+     * formato anterior (HashMap por chunk) para comparar.
+     */
+    public record WorldMemory(String worldName, int chunks, long leaves, long emitters, long bytes, long legacyBytes) {}
+
+    /**
+     * Eventos de física: vistos, cancelados y dejados pasar por material (notHost: el bloque no
+     * era el host). Toda azalea host es una hoja custom, así que no hay rechazo por índice.
+     */
+    public record PhysicsStats(long seen, long cancelled, long notHost) {}
+
+    /**
+     * Presupuesto del planificador de trabajo de fondo y tiempo usado por cada subsistema.
+     */
+    public record SchedulerStats(long budgetNanos, long lastTickNanos, long maxTickNanos,
+                                 List<LeafWorkScheduler.TaskStats> tasks) {}
+
+    /**
+     * Modo de indexado (indexing.mode) y chunks rastreados, sin leer aún y en cola de lectura.
+     */
+    public record IndexingStats(boolean lazy, int radius, int trackedChunks, int deferredChunks, int queuedChunks) {}
+
+    /**
+     * Estadísticas del guardado diferido. flushes cuenta vaciados con al menos un chunk;
+     * writtenChunks incluye también los guardados al descargar chunks.
+     */
+    public record PersistenceStats(int pendingChunks, long flushes, long writtenChunks,
+                                   long lastFlushNanos, long maxFlushNanos, long totalFlushNanos) {}
+
+    /**
+     * Tipos de hoja y modos que definen el contenido del índice. Los códigos de
+     * ChunkLeaves y los marcadores de escaneo solo tienen sentido con la config
+     * con la que se crearon.
+     */
+    private static final class LeafConfig {
+        final LeafRegistry registry;
+        final Map<String, LeafType> byId;
+        // Índice = distance: workers de escaneo y códigos de ChunkLeaves (copia propia, no la del registro)
+        final LeafType[] typesByDistance;
+        // Primera hoja de la config: tipo de las azaleas host con un distance sin configurar
+        final LeafType fallback;
+        // natural-leaves.mode: stateless = las hojas naturales no se guardan en el índice (solo sus emisores)
+        final boolean naturalStateless;
+        // visuals.mode: packets = el estado visual se reescribe en los paquetes, no en los bloques del mundo
+        final boolean packetVisuals;
+        // Hash del mapeo distance-id -> hoja (y fallback) y de los modos; forma parte del marcador de escaneo
+        final int scanConfigHash;
+
+        LeafConfig(LeafRegistry registry, boolean naturalStateless, boolean packetVisuals) {
+            this.registry = registry;
+            this.byId = registry.byIdMap();
+            this.typesByDistance = registry.distanceTable();
+            this.fallback = registry.fallback();
+            this.naturalStateless = naturalStateless;
+            this.packetVisuals = packetVisuals;
+
+            int hash = 1;
+            for (LeafType type : typesByDistance) {
+                hash = 31 * hash + (type == null ? 0 : type.id().hashCode());
+            }
+            hash = 31 * hash + (fallback == null ? 0 : fallback.id().hashCode());
+            // El contenido de la caché de hojas naturales depende del modo, y en modo
+            // packets el escaneo no corrige bloques: cambiar de modo obliga a reescanear
+            this.scanConfigHash = 31 * hash + (naturalStateless ? 1 : 0) + (packetVisuals ? 2 : 0);
+        }
+
+        long scanMarker() {
+            return ((long) SCAN_MARKER_VERSION << 32) | (scanConfigHash & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * Reload en curso: el índice nuevo se construye por ticks con la config nueva
+     * (urgentes = chunks cargados o modificados durante el reload; luego el resto,
+     * los más cercanos a jugadores primero) y sustituye al actual al terminar.
+     */
+    private static final class ReloadJob {
+        final CommandSender sender;
+        final Runnable onComplete;
+        final LeafConfig config;
+        final Map<UUID, LongObjectMap<TrackedChunk>> chunks = new HashMap<>();
+        final ArrayDeque<Chunk> urgent = new ArrayDeque<>();
+        final List<Chunk> ordered;
+        // Chunks del índice actual que pasan tal cual (reload diferencial); al terminar solo se reasignan tipos
+        final List<TrackedChunk> carried = new ArrayList<>();
+        // Chunks quitados del índice nuevo con hojas colocadas sin guardar (p. ej. migración
+        // del formato antiguo): el que los vuelva a leer tiene que quedar sucio también
+        final Map<UUID, Set<Long>> dirtyRemoved = new HashMap<>();
+        final long startNanos = System.nanoTime();
+        int cursor;
+        int pendingScans;
+        int nextReportPercent = 25;
+
+        ReloadJob(CommandSender sender, Runnable onComplete, LeafConfig config, List<Chunk> ordered) {
+            this.sender = sender;
+            this.onComplete = onComplete;
+            this.config = config;
+            this.ordered = ordered;
+        }
+
+        Chunk next() {
+            Chunk chunk = urgent.poll();
+            if (chunk == null && cursor < ordered.size()) {
+                chunk = ordered.get(cursor++);
+            }
+            return chunk;
+        }
+
+        boolean isDrained() {
+            return urgent.isEmpty() && cursor >= ordered.size();
+        }
+
+        TrackedChunk remove(UUID worldId, int chunkX, int chunkZ) {
+            LongObjectMap<TrackedChunk> world = chunks.get(worldId);
+            TrackedChunk staged = world == null ? null : world.remove(LeafPos.chunkKey(chunkX, chunkZ));
+            if (staged != null) {
+                staged.pendingScan = null;
+                if (staged.persistentDirty) {
+                    dirtyRemoved.computeIfAbsent(worldId, id -> new HashSet<>()).add(LeafPos.chunkKey(chunkX, chunkZ));
+                }
+            }
+            return staged;
+        }
+
+        boolean takeDirtyRemoved(UUID worldId, long key) {
+            Set<Long> keys = dirtyRemoved.get(worldId);
+            return keys != null && keys.remove(key);
+        }
+
+        boolean owns(TrackedChunk tracked) {
+            LongObjectMap<TrackedChunk> world = chunks.get(tracked.worldId);
+            return world != null && world.get(LeafPos.chunkKey(tracked.x, tracked.z)) == tracked;
+        }
+    }
+
+    // Estado de un chunk cargado: hojas, emisores, escaneo pendiente y marcador sucio
+    private static final class TrackedChunk {
+        final UUID worldId;
+        final int x;
+        final int z;
+        final ChunkLeaves leaves = new ChunkLeaves();
+        final EmitterSet emitters = new EmitterSet();
+        PendingScan pendingScan;
+        // Rastreado pero sin leer aún su PDC ni su marcador de escaneo
+        boolean loadPending;
+        // Mientras loadPending: hojas colocadas/rotas (local -> código, NONE = rota), aplicadas al completar la carga
+        IntIntMap pendingEdits;
+        // Mientras loadPending: hubo cambios en el chunk y su marcador de escaneo ya no es fiable
+        boolean editedWhilePending;
+        // Posiciones locales de este chunk que ya están en reskinQueue (física: sin un ReskinPos por evento)
+        IntIntMap queuedReskins;
+        // View de emisores publicada al planificador de partículas
+        ParticlePlanner.ChunkView particleView;
+        // Las hojas naturales cambiaron desde el último marcador guardado
+        boolean naturalDirty;
+        // Encolado por la reconstrucción inicial y aún sin leer: su escaneo cuenta como parte de ella
+        boolean startup;
+        // Modo mundo: huella de los estados host que quedan tras escanear y repintar
+        // (ver ChunkScanner#hostPaletteMask). Sin las entradas viejas que la paleta en memoria conserva
+        int hostStates;
+        // Las hojas colocadas cambiaron (o vienen del formato antiguo) y el PDC está desactualizado
+        boolean persistentDirty;
+
+        TrackedChunk(UUID worldId, int x, int z) {
+            this.worldId = worldId;
+            this.x = x;
+            this.z = z;
+        }
+    }
+
+    // Vecindario de partículas de un jugador: chunks rastreados alrededor de su chunk
+    // y las views publicadas (solo chunks con peso), rehechas cuando cambian los emisores
+    private static final class PlayerParticleIndex {
+        UUID worldId;
+        int chunkX;
+        int chunkZ;
+        boolean dirty = true;
+        TrackedChunk[] chunks = new TrackedChunk[0];
+        EmitterSet.View[] seenViews = new EmitterSet.View[0];
+        ParticlePlanner.ChunkView[] views = new ParticlePlanner.ChunkView[0];
+        int totalWeight;
+
+        boolean covers(UUID worldId, int chunkX, int chunkZ, int radius) {
+            return worldId.equals(this.worldId)
+                    && Math.abs(chunkX - this.chunkX) <= radius
+                    && Math.abs(chunkZ - this.chunkZ) <= radius;
+        }
+    }
+
+    // Escaneo en curso de un chunk. touched = hubo place/break en el chunk desde el snapshot.
+    // config = con la que se escaneó; job = reload al que pertenece el chunk (null = índice actual).
+    private static final class PendingScan {
+        final TrackedChunk chunk;
+        final LeafConfig config;
+        final ReloadJob job;
+        // Lanzado durante la reconstrucción inicial (cuenta en StartupRebuild.pendingScans)
+        boolean startup;
+        ChunkScanner.ScanResult result;
+        boolean touched;
+        int cursor;
+
+        PendingScan(TrackedChunk chunk, LeafConfig config, ReloadJob job) {
+            this.chunk = chunk;
+            this.config = config;
+            this.job = job;
+        }
+    }
+
+    /**
+     * Reconstrucción inicial de los chunks ya cargados al habilitar el plugin. Termina
+     * cuando sus chunks están leídos (o ya no esperan) y no quedan escaneos suyos por
+     * aplicar; los chunks que cargan los jugadores mientras tanto no cuentan.
+     */
+    private static final class StartupRebuild {
+        final long startNanos;
+        // Chunks que encoló rebuildLoadedChunks y aún tienen la carga pendiente
+        final ArrayList<TrackedChunk> loads = new ArrayList<>();
+        int chunks;
+        int scans;
+        int pendingScans;
+        int threads;
+
+        StartupRebuild(long startNanos) {
+            this.startNanos = startNanos;
+        }
+    }
 
     public LeafManager(ExtraLeavesPlugin plugin) {
         this.plugin = plugin;
+        this.startupRebuild = new StartupRebuild(System.nanoTime());
         this.itemIdKey = new NamespacedKey(plugin, "leaf_id");
         this.chunkDataKey = new NamespacedKey(plugin, "leaf_blocks");
-
-        loadConfigLeaves();
+        this.scanMarkerKey = new NamespacedKey(plugin, "leaf_scan");
+        this.naturalLeavesKey = new NamespacedKey(plugin, "leaf_natural");
+        this.scanPaletteKey = new NamespacedKey(plugin, "leaf_scan_palette");
+        this.particleLevelKey = new NamespacedKey(plugin, "particle_level");
+        this.scanner = new ChunkScanner(hostMaterial);
+        this.particlePlanner = new ParticlePlanner(plugin.getLogger());
+
+        applyLeafConfig(loadLeafConfig());
         loadHandDropsFromConfig();
         loadParticleSettings();
+        loadPersistenceSettings();
+        loadSchedulerSettings();
+        loadIndexingSettings();
 
         Bukkit.getPluginManager().registerEvents(this, plugin);
 
+        // Todo el trabajo de fondo comparte el presupuesto por tick, por prioridad:
+        // partículas (cada tick), chunks recién cargados, resultados de escaneo, reload,
+        // repintados, guardado diferido y reconstrucción inicial
+        workScheduler.register("particles", 0, deadline -> spawnLeafParticles());
+        workScheduler.register("chunk-loads", 1, this::processPendingChunkLoads);
+        workScheduler.register("scans", 2, this::applyScanResults);
+        workScheduler.register("reload", 3, this::processReloadJob);
+        workScheduler.register("reskin", 4, this::processReskinQueue);
+        workScheduler.register("persistence", 5, this::tickPersistence);
+        workScheduler.register("rebuild", 6, this::processRebuildQueue);
+
         // Reconstruir datos persistidos (hojas colocadas antes del restart)
         Bukkit.getScheduler().runTask(plugin, this::rebuildLoadedChunks);
 
-        // Reloj ligero para procesar la cola de repintados sin burst masivos
-        Bukkit.getScheduler().runTaskTimer(plugin, this::processReskinQueue, 1L, 1L);
-
-        // Partículas suaves de hojas cayendo (solo hojas colocadas)
-        Bukkit.getScheduler().runTaskTimer(plugin, this::spawnLeafParticles, PARTICLE_TICK_INTERVAL, PARTICLE_TICK_INTERVAL);
+        Bukkit.getScheduler().runTaskTimer(plugin, workScheduler::tick, PARTICLE_TICK_INTERVAL, PARTICLE_TICK_INTERVAL);
     }
 
     // ==================== CONFIG ====================
@@ -127,16 +460,44 @@ public class LeafManager implements Listener {
         return hostMaterial;
     }
 
-    private void loadConfigLeaves() {
+    public void shutdown() {
+        cancelReloadJob();
+        flushPendingEdits(null);
+        flushDirtyChunks(null);
+        flushScanCaches();
+        scanner.shutdown();
+        startupRebuild = null;
+        particlePlanner.shutdown();
+        if (visualLayer != null) {
+            visualLayer.unregister();
+        }
+        chunksByWorld.clear();
+        pendingChunkLoads.clear();
+        pendingRebuild.clear();
+        completedScans.clear();
+        applyingScan = null;
+    }
+
+    /**
+     * Lee los tipos de hoja y los modos de config.yml sin tocar la config en uso.
+     */
+    private LeafConfig loadLeafConfig() {
         FileConfiguration cfg = plugin.getConfig();
+        boolean naturalStateless = "stateless".equalsIgnoreCase(cfg.getString("natural-leaves.mode", "indexed"));
+        boolean packetVisuals = "packets".equalsIgnoreCase(cfg.getString("visuals.mode", "world"));
+        if (packetVisuals && !ensureVisualLayer()) {
+            packetVisuals = false;
+        }
+
+        LinkedHashMap<String, LeafType> byId = new LinkedHashMap<>();
+        LeafType[] typesByDistance = new LeafType[8];
         ConfigurationSection sec = cfg.getConfigurationSection("leaves");
 
         if (sec == null) {
             plugin.getLogger().warning("No hay sección 'leaves' en config.yml");
-            return;
+            return new LeafConfig(new LeafRegistry(byId, typesByDistance), naturalStateless, packetVisuals);
         }
 
-        maxParticleAmount = 1;
         for (String key : sec.getKeys(false)) {
             ConfigurationSection leafSec = sec.getConfigurationSection(key);
             if (leafSec == null) continue;
@@ -153,7 +514,7 @@ public class LeafManager implements Listener {
                 plugin.getLogger().warning("distance-id inválido en " + id + " (1..7). Se ignora.");
                 continue;
             }
-            if (byDistance.containsKey(distanceId)) {
+            if (typesByDistance[distanceId] != null) {
                 plugin.getLogger().warning("distance-id " + distanceId + " duplicado, se ignora " + id);
                 continue;
             }
@@ -180,11 +541,11 @@ public class LeafManager implements Listener {
             );
 
             byId.put(type.id(), type);
-            byDistance.put(distanceId, type);
-            maxParticleAmount = Math.max(maxParticleAmount, particleAmount);
+            typesByDistance[distanceId] = type;
         }
 
         plugin.getLogger().info("ExtraLeaves: cargados " + byId.size() + " tipos de hojas.");
+        return new LeafConfig(new LeafRegistry(byId, typesByDistance), naturalStateless, packetVisuals);
     }
 
     private Color parseParticleColor(String raw, String leafId) {
@@ -263,41 +624,433 @@ public class LeafManager implements Listener {
         ConfigurationSection sec = cfg.getConfigurationSection("particles");
         if (sec == null) {
             particleChunkRadius = 3;
+            particleIndexByPlayer.clear();
             maxParticlesPerTick = 40;
             maxParticlesPerPlayer = 3;
             particlePlayerRadius = 48.0;
             particlePlayerRadiusSquared = particlePlayerRadius * particlePlayerRadius;
+            particleRatePerLeaf = 0.02;
+            particleThrottle.configure(null);
+            configurePacketParticles(true);
             return;
         }
 
         particleChunkRadius = Math.max(1, sec.getInt("chunk-radius", 3));
+        particleIndexByPlayer.clear();
         maxParticlesPerTick = Math.max(1, sec.getInt("max-per-tick", 40));
         maxParticlesPerPlayer = Math.max(1, sec.getInt("max-per-player", 3));
         particlePlayerRadius = Math.max(8.0, sec.getDouble("player-radius", 48.0));
         particlePlayerRadiusSquared = particlePlayerRadius * particlePlayerRadius;
+        particleRatePerLeaf = Math.max(0.0, sec.getDouble("rate-per-leaf", 0.02));
+        particleThrottle.configure(sec.getConfigurationSection("adaptive"));
+        configurePacketParticles(sec.getBoolean("packet-bundles", true));
     }
 
-    public void reload() {
-        byId.clear();
-        byDistance.clear();
-        leavesByChunk.clear();
-        particleLeavesByChunk.clear();
-        handDrops.clear();
+    private void configurePacketParticles(boolean enabled) {
+        packetParticles = null;
+        if (!enabled) return;
+
+        try {
+            packetParticles = new PacketParticleSender();
+        } catch (LinkageError ex) {
+            plugin.getLogger().warning("PacketEvents no disponible: partículas con la API de Bukkit.");
+        }
+    }
+
+    /**
+     * Crea la capa de paquetes si hace falta. false si PacketEvents no está disponible
+     * (entonces se usa el modo world).
+     */
+    private boolean ensureVisualLayer() {
+        if (visualLayer != null) return true;
+
+        try {
+            visualLayer = new PacketVisualLayer(hostMaterial);
+            return true;
+        } catch (LinkageError | RuntimeException ex) {
+            plugin.getLogger().log(Level.WARNING, "No se pudo activar visuals.mode: packets (PacketEvents), se usa world.", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Pone en uso una config: registra o quita la capa de paquetes según visuals.mode.
+     */
+    private void applyLeafConfig(LeafConfig next) {
+        config = next;
+        if (visualLayer == null) return;
+
+        if (!next.packetVisuals) {
+            visualLayer.unregister();
+            return;
+        }
+
+        try {
+            visualLayer.update(next.typesByDistance, next.fallback);
+            visualLayer.register();
+        } catch (LinkageError | RuntimeException ex) {
+            plugin.getLogger().log(Level.WARNING, "Error actualizando la capa de paquetes (visuals.mode: packets).", ex);
+        }
+    }
+
+    private void loadPersistenceSettings() {
+        flushIntervalSeconds = Math.max(0, plugin.getConfig().getInt("persistence.flush-interval-seconds", 30));
+    }
+
+    private void loadSchedulerSettings() {
+        double budgetMs = plugin.getConfig().getDouble("scheduler.tick-budget-ms", 5.0);
+        workScheduler.setBudgetNanos((long) (budgetMs * 1_000_000L));
+    }
+
+    private void loadIndexingSettings() {
+        lazyIndexing = "lazy".equalsIgnoreCase(plugin.getConfig().getString("indexing.mode", "eager"));
+        lazyIndexRadius = Math.max(1, plugin.getConfig().getInt("indexing.radius", 8));
+        lazyIndexCountdown = 0;
+        if (lazyIndexing) return;
+
+        // De lazy a eager: los chunks que se quedaron sin leer entran en la cola normal
+        for (LongObjectMap<TrackedChunk> chunks : chunksByWorld.values()) {
+            chunks.forEach((key, tracked) -> {
+                if (tracked.loadPending) {
+                    pendingChunkLoads.add(tracked);
+                }
+            });
+        }
+    }
+
+    /**
+     * Recarga config.yml sin congelar el servidor. Drops, partículas, guardado y
+     * presupuesto por tick se aplican al momento. El índice de hojas nuevo se construye
+     * por ticks con la config nueva mientras se sigue usando el actual, y se sustituye
+     * de golpe al terminar (ver processReloadJob). Al sender se le informa del progreso;
+     * onComplete corre en el hilo principal justo después del cambio.
+     */
+    public void reload(CommandSender sender, Runnable onComplete) {
+        if (reloadJob != null) {
+            cancelReloadJob();
+            sender.sendMessage(ChatColor.GRAY + "[ExtraLeaves] Se descarta el reload anterior sin terminar.");
+        }
+
+        // Guardar antes de leer: el índice nuevo se construye desde el PDC
+        flushDirtyChunks(null);
+        flushScanCaches();
 
         plugin.reloadConfig();
-        loadConfigLeaves();
+        loadSchedulerSettings();
+        loadIndexingSettings();
+        handDrops.clear();
         loadHandDropsFromConfig();
         loadParticleSettings();
-        rebuildLoadedChunks();
+        loadPersistenceSettings();
+
+        LeafConfig next = loadLeafConfig();
+        LeafConfig current = config;
+
+        // Cambio de modo o de hoja por defecto: todo el índice depende de ello
+        boolean full = next.naturalStateless != current.naturalStateless
+                || next.packetVisuals != current.packetVisuals
+                || !sameId(next.fallback, current.fallback);
+        boolean[] changed = changedDistances(current, next);
+        // Un distance-id que pasa a estar configurado: sus hojas se indexaron con la hoja por
+        // defecto y el índice no guarda su distance real. En modo stateless ni siquiera están
+        // en el índice, así que no se sabe qué chunks las tienen
+        boolean added = addedDistances(current, next);
+        if (added && next.naturalStateless) {
+            full = true;
+        }
+        int fallbackDistance = added && current.fallback != null ? current.fallback.distanceId() : -1;
+
+        if (!full && !anyChanged(changed)) {
+            // Solo cambios cosméticos: mismos distance-id, se reasignan los tipos sin tocar el índice
+            applyLeafConfig(next);
+            for (LongObjectMap<TrackedChunk> chunks : chunksByWorld.values()) {
+                chunks.forEach((key, tracked) -> tracked.emitters.rebind(next.typesByDistance));
+            }
+            sender.sendMessage(ChatColor.GREEN + "[ExtraLeaves] Solo cambios cosméticos: índice conservado.");
+            if (onComplete != null) {
+                onComplete.run();
+            }
+            return;
+        }
+
+        List<Chunk> loaded = loadedChunksByPlayerDistance();
+        List<Chunk> rebuild = full ? loaded : new ArrayList<>();
+        ReloadJob job = new ReloadJob(sender, onComplete, next, rebuild);
+
+        if (!full) {
+            // Solo se reconstruyen los chunks con hojas de algún distance-id que cambió (y, si se
+            // configuró un distance nuevo, los que tienen naturales de la hoja por defecto)
+            for (Chunk chunk : loaded) {
+                UUID worldId = chunk.getWorld().getUID();
+                LongObjectMap<TrackedChunk> chunks = chunksByWorld.get(worldId);
+                TrackedChunk tracked = chunks == null ? null : chunks.get(LeafPos.chunkKey(chunk.getX(), chunk.getZ()));
+                if (tracked == null || tracked.loadPending || tracked.pendingScan != null
+                        || usesDistances(tracked, changed, fallbackDistance)) {
+                    rebuild.add(chunk);
+                } else {
+                    job.chunks.computeIfAbsent(worldId, id -> new LongObjectMap<>())
+                            .put(LeafPos.chunkKey(tracked.x, tracked.z), tracked);
+                    job.carried.add(tracked);
+                }
+            }
+        }
+
+        reloadJob = job;
+        sender.sendMessage(ChatColor.YELLOW + "[ExtraLeaves] Reconstruyendo el índice de "
+                + rebuild.size() + " de " + loaded.size() + " chunks en segundo plano...");
+    }
+
+    private static boolean sameId(LeafType a, LeafType b) {
+        return a == null ? b == null : b != null && a.id().equals(b.id());
+    }
+
+    /**
+     * changed[d] = el tipo del distance-id d no es el mismo (por id) en las dos configs.
+     */
+    private static boolean[] changedDistances(LeafConfig current, LeafConfig next) {
+        boolean[] changed = new boolean[8];
+        for (int d = 0; d < 8; d++) {
+            changed[d] = !sameId(current.typesByDistance[d], next.typesByDistance[d]);
+        }
+        return changed;
+    }
+
+    /**
+     * Algún distance-id sin tipo en la config actual lo tiene en la nueva.
+     */
+    private static boolean addedDistances(LeafConfig current, LeafConfig next) {
+        for (int d = 0; d < 8; d++) {
+            if (current.typesByDistance[d] == null && next.typesByDistance[d] != null) return true;
+        }
+        return false;
+    }
+
+    private static boolean anyChanged(boolean[] changed) {
+        for (boolean value : changed) {
+            if (value) return true;
+        }
+        return false;
+    }
+
+    /**
+     * El chunk tiene hojas de algún distance-id cambiado, o naturales con el código de
+     * fallbackDistance (-1 = no se miran).
+     */
+    private static boolean usesDistances(TrackedChunk tracked, boolean[] changed, int fallbackDistance) {
+        boolean[] found = {false};
+        tracked.leaves.forEach((local, code) -> {
+            int distance = ChunkLeaves.distance(code);
+            if (changed[distance] || (distance == fallbackDistance && !ChunkLeaves.isPersistent(code))) {
+                found[0] = true;
+            }
+        });
+        for (int i = 0; i < tracked.emitters.size() && !found[0]; i++) {
+            if (changed[tracked.emitters.typeAt(i).distanceId()]) found[0] = true;
+        }
+        return found[0];
+    }
+
+    /**
+     * Chunks cargados de todos los mundos, los más cercanos a algún jugador primero
+     * (distancia en chunks al cuadrado; mundos sin jugadores al final).
+     */
+    private List<Chunk> loadedChunksByPlayerDistance() {
+        record Candidate(Chunk chunk, long distance) {}
+
+        List<Candidate> candidates = new ArrayList<>();
+        for (World world : Bukkit.getWorlds()) {
+            List<Player> players = world.getPlayers();
+            for (Chunk chunk : world.getLoadedChunks()) {
+                long best = Long.MAX_VALUE;
+                for (Player player : players) {
+                    Location loc = player.getLocation();
+                    long dx = (loc.getBlockX() >> 4) - chunk.getX();
+                    long dz = (loc.getBlockZ() >> 4) - chunk.getZ();
+                    best = Math.min(best, dx * dx + dz * dz);
+                }
+                candidates.add(new Candidate(chunk, best));
+            }
+        }
+
+        candidates.sort(Comparator.comparingLong(Candidate::distance));
+        List<Chunk> sorted = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            sorted.add(candidate.chunk());
+        }
+        return sorted;
+    }
+
+    /**
+     * Construye chunks del índice nuevo hasta el deadline. Cuando no quedan chunks ni
+     * escaneos pendientes, el índice nuevo sustituye al actual.
+     */
+    private void processReloadJob(long deadline) {
+        ReloadJob job = reloadJob;
+        if (job == null) return;
+
+        Chunk chunk;
+        while ((chunk = job.next()) != null) {
+            if (chunk.isLoaded()) {
+                stageChunk(job, chunk);
+            }
+            if (System.nanoTime() >= deadline) break;
+        }
+
+        int percent = job.ordered.isEmpty() ? 100 : (int) (job.cursor * 100L / job.ordered.size());
+        if (percent >= job.nextReportPercent && percent < 100) {
+            job.nextReportPercent = (percent / 25 + 1) * 25;
+            job.sender.sendMessage(ChatColor.GRAY + "[ExtraLeaves] Reload: " + job.cursor + "/"
+                    + job.ordered.size() + " chunks (" + percent + "%), escaneos pendientes: " + job.pendingScans);
+        }
+
+        if (job.isDrained() && job.pendingScans <= 0) {
+            finishReloadJob(job);
+        }
+    }
+
+    /**
+     * Lee un chunk con la config nueva. Lo pendiente del índice actual se escribe antes,
+     * para que el PDC refleje los últimos cambios.
+     */
+    private void stageChunk(ReloadJob job, Chunk chunk) {
+        UUID worldId = chunk.getWorld().getUID();
+        long key = LeafPos.chunkKey(chunk.getX(), chunk.getZ());
+
+        LongObjectMap<TrackedChunk> liveChunks = chunksByWorld.get(worldId);
+        TrackedChunk live = liveChunks == null ? null : liveChunks.get(key);
+        if (live != null && live.loadPending) {
+            writePendingEdits(chunk, live);
+        } else if (live != null) {
+            if (live.persistentDirty) {
+                saveChunkData(chunk, live);
+            }
+            if (live.naturalDirty && live.pendingScan == null) {
+                saveScanCache(chunk, live, config);
+            }
+        }
+
+        TrackedChunk staged = new TrackedChunk(worldId, chunk.getX(), chunk.getZ());
+        if (lazyIndexing && !isNearPlayer(chunk.getWorld(), chunk.getX(), chunk.getZ())) {
+            // Lejos de jugadores: entra sin leer, como cualquier chunk recién cargado en modo lazy
+            staged.loadPending = true;
+            staged.editedWhilePending = live != null && live.editedWhilePending;
+        } else {
+            loadChunkData(chunk, staged, job.config, false);
+            // La paleta de un chunk cargado hace rato puede tener estados viejos: si el índice
+            // actual está completo, su huella es la buena
+            boolean known = live != null && !live.loadPending && live.pendingScan == null
+                    && !config.packetVisuals && !job.config.packetVisuals;
+            int palette = known ? live.hostStates : scanner.hostPaletteMask(chunk);
+            staged.hostStates = palette & ChunkScanner.CANONICAL_STATES;
+            if (!loadScanCache(chunk, staged, job.config, palette)) {
+                scheduleHostScan(chunk, staged, job.config, job);
+            }
+        }
+
+        TrackedChunk previous = job.chunks.computeIfAbsent(worldId, id -> new LongObjectMap<>()).put(key, staged);
+        if (previous != null) {
+            previous.pendingScan = null;
+        }
+        // El chunk que se sustituye podía tener cambios sin guardar (migración del formato antiguo)
+        if ((previous != null && previous.persistentDirty) | job.takeDirtyRemoved(worldId, key)) {
+            if (previous != null) {
+                previous.persistentDirty = false;
+            }
+            markPersistentDirty(staged);
+        }
+    }
+
+    /**
+     * Pone en uso la config y el índice nuevos de golpe y repinta las hojas colocadas.
+     */
+    private void finishReloadJob(ReloadJob job) {
+        // Antes de soltar el job: los chunks sucios del índice nuevo se conservan en la lista
+        flushDirtyChunks(null);
+        reloadJob = null;
+        for (LongObjectMap<TrackedChunk> chunks : chunksByWorld.values()) {
+            chunks.forEach((key, tracked) -> tracked.pendingScan = null);
+        }
+
+        applyLeafConfig(job.config);
+        chunksByWorld = job.chunks;
+        pendingChunkLoads.clear();
+        pendingRebuild.clear();
+        particleIndexByPlayer.clear();
+        particlePlanner.reset();
+        reskinQueue.clear();
+
+        // Los chunks que pasan tal cual solo cambian de objetos LeafType; su marcador de
+        // escaneo se reescribe con el hash nuevo cuando toque guardarlo
+        Set<TrackedChunk> carried = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (TrackedChunk tracked : job.carried) {
+            LongObjectMap<TrackedChunk> chunks = chunksByWorld.get(tracked.worldId);
+            if (chunks == null || chunks.get(LeafPos.chunkKey(tracked.x, tracked.z)) != tracked) continue;
+            tracked.emitters.rebind(job.config.typesByDistance);
+            tracked.naturalDirty = true;
+            // La cola de repintados se acaba de vaciar
+            tracked.queuedReskins = null;
+            carried.add(tracked);
+        }
+
+        for (LongObjectMap<TrackedChunk> chunks : chunksByWorld.values()) {
+            chunks.forEach((key, tracked) -> {
+                World world = Bukkit.getWorld(tracked.worldId);
+                if (world == null || carried.contains(tracked)) return;
+                int baseX = tracked.x << 4;
+                int baseZ = tracked.z << 4;
+                tracked.leaves.forEach((local, code) -> {
+                    if (ChunkLeaves.isPersistent(code)) {
+                        queueReskin(world, baseX + LeafPos.localX(local), LeafPos.y(local), baseZ + LeafPos.localZ(local));
+                    }
+                });
+            });
+        }
+
+        long ms = (System.nanoTime() - job.startNanos) / 1_000_000L;
+        plugin.getLogger().info("ExtraLeaves: índice reconstruido (" + job.ordered.size() + " chunks, "
+                + carried.size() + " conservados) en " + ms + " ms.");
+        job.sender.sendMessage(ChatColor.GREEN + "[ExtraLeaves] Índice de hojas reconstruido en " + ms + " ms.");
+        if (job.onComplete != null) {
+            job.onComplete.run();
+        }
+    }
+
+    private void cancelReloadJob() {
+        ReloadJob job = reloadJob;
+        if (job == null) return;
+
+        reloadJob = null;
+        for (LongObjectMap<TrackedChunk> chunks : job.chunks.values()) {
+            chunks.forEach((key, tracked) -> tracked.pendingScan = null);
+        }
+    }
+
+    /**
+     * Un chunk ya construido para el reload cambió en el índice actual: se vuelve a construir.
+     */
+    private void restageChunk(Chunk chunk) {
+        ReloadJob job = reloadJob;
+        if (job == null) return;
+
+        if (job.remove(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ()) != null) {
+            job.urgent.add(chunk);
+        }
+    }
+
+    /**
+     * Tipos de hoja en uso. Instantánea inmutable: segura desde cualquier hilo y
+     * sustituida entera en cada reload.
+     */
+    public LeafRegistry getRegistry() {
+        return config.registry;
     }
 
     public List<LeafType> getAll() {
-        return List.copyOf(byId.values());
+        return config.registry.all();
     }
 
     public LeafType find(String id) {
-        if (id == null) return null;
-        return byId.get(id.toLowerCase(Locale.ROOT));
+        return config.registry.find(id);
     }
 
     // ==================== ITEMS ====================
@@ -328,61 +1081,128 @@ public class LeafManager implements Listener {
         String id = meta.getPersistentDataContainer().get(itemIdKey, PersistentDataType.STRING);
         if (id == null) return null;
 
-        return byId.get(id.toLowerCase(Locale.ROOT));
+        return config.registry.find(id);
     }
 
     // ==================== MAPA DE HOJAS ====================
 
-    private ChunkKey chunkKey(Chunk chunk) {
-        return new ChunkKey(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ());
+    /**
+     * Chunk rastreado, tal cual: puede tener la carga pendiente (loadPending). Nunca lee
+     * el PDC ni escanea; solo processPendingChunkLoads completa cargas.
+     */
+    private TrackedChunk getTracked(World world, int chunkX, int chunkZ) {
+        LongObjectMap<TrackedChunk> chunks = chunksByWorld.get(world.getUID());
+        return chunks == null ? null : chunks.get(LeafPos.chunkKey(chunkX, chunkZ));
+    }
+
+    /**
+     * Guarda un cambio hecho en un chunk sin leer. code = código de hoja colocada o NONE (rota).
+     */
+    private static void recordPendingEdit(TrackedChunk tracked, int local, int code) {
+        if (tracked.pendingEdits == null) {
+            tracked.pendingEdits = new IntIntMap(-1);
+        }
+        tracked.pendingEdits.put(local, code);
+        tracked.editedWhilePending = true;
+    }
+
+    /**
+     * Aplica sobre el estado recién leído los cambios hechos mientras el chunk estaba sin leer.
+     *
+     * @return true si cambiaron hojas colocadas (hay que guardar el PDC)
+     */
+    private boolean applyPendingEdits(Chunk chunk, TrackedChunk tracked, IntIntMap edits) {
+        if (edits == null) return false;
+
+        boolean[] persistentChanged = {false};
+        edits.forEach((local, code) -> {
+            int previous = code == ChunkLeaves.NONE ? tracked.leaves.remove(local) : tracked.leaves.put(local, code);
+            if (ChunkLeaves.isPersistent(previous) || ChunkLeaves.isPersistent(code)) {
+                persistentChanged[0] = true;
+            }
+            tracked.emitters.remove(local);
+            LeafType type = typeOf(code);
+            if (type != null && hasAirBelow(chunk, local)) {
+                tracked.emitters.put(local, type);
+            }
+        });
+        return persistentChanged[0];
     }
 
-    private BlockKey blockPos(Block block) {
-        return new BlockKey(block.getX(), block.getY(), block.getZ());
+    /**
+     * Escribe en el PDC los cambios de un chunk sin leer que se va a descartar o que otro
+     * va a leer (descarga, recarga, reload). No completa su carga: no mira el marcador ni escanea.
+     */
+    private void writePendingEdits(Chunk chunk, TrackedChunk tracked) {
+        IntIntMap edits = tracked.pendingEdits;
+        if (edits == null) return;
+        tracked.pendingEdits = null;
+
+        TrackedChunk current = new TrackedChunk(tracked.worldId, tracked.x, tracked.z);
+        loadChunkData(chunk, current, config, false);
+        if (applyPendingEdits(chunk, current, edits) || current.persistentDirty) {
+            saveChunkData(chunk, current);
+        }
     }
 
+    private LeafType typeOf(int code) {
+        return code == ChunkLeaves.NONE ? null : config.typesByDistance[ChunkLeaves.distance(code)];
+    }
 
-    private Map<BlockKey, LeafEntry> getChunkMap(Chunk chunk) {
-        ChunkKey key = chunkKey(chunk);
-        Map<BlockKey, LeafEntry> existing = leavesByChunk.get(key);
+    /**
+     * Estado del chunk, tal cual (puede tener la carga pendiente). Si aún no está
+     * rastreado entra como en su ChunkLoadEvent: con la carga y el escaneo en cola, y
+     * mientras tanto las consultas se deducen del estado del bloque.
+     */
+    private TrackedChunk getOrLoadTracked(Chunk chunk) {
+        TrackedChunk existing = getTracked(chunk.getWorld(), chunk.getX(), chunk.getZ());
         if (existing != null) {
             return existing;
         }
 
-        Map<BlockKey, LeafEntry> loaded = loadChunkData(chunk);
-        leavesByChunk.put(key, loaded);
-        return loaded;
+        onChunkLoad(new ChunkLoadEvent(chunk, false));
+        return getTracked(chunk.getWorld(), chunk.getX(), chunk.getZ());
     }
 
     private void setLeafAt(Block block, LeafType type, boolean persistent, boolean savePersistentChanges) {
         Chunk chunk = block.getChunk();
-        Map<BlockKey, LeafEntry> map = getChunkMap(chunk);
-        BlockKey pos = blockPos(block);
+        TrackedChunk tracked = getOrLoadTracked(chunk);
+        int local = LeafPos.local(block.getX(), block.getY(), block.getZ());
+
+        if (tracked.loadPending) {
+            // Chunk sin leer: las colocadas se aplican al completar la carga; las naturales las encuentra el escaneo
+            applyLeafState(block, type);
+            if (persistent) {
+                recordPendingEdit(tracked, local, ChunkLeaves.code(type.distanceId(), true));
+            } else {
+                tracked.editedWhilePending = true;
+            }
+            restageChunk(chunk);
+            return;
+        }
 
-        LeafEntry previous = map.put(pos, new LeafEntry(type, persistent));
+        int previous = tracked.leaves.put(local, ChunkLeaves.code(type.distanceId(), persistent));
         applyLeafState(block, type);
+        tracked.hostStates |= ChunkScanner.canonicalStateBit(type.distanceId());
+
+        boolean previousPersistent = ChunkLeaves.isPersistent(previous);
+        if (!persistent || (previous != ChunkLeaves.NONE && !previousPersistent)) {
+            tracked.naturalDirty = true;
+        }
 
-        if (persistent) {
-            particleLeavesByChunk
-                    .computeIfAbsent(chunkKey(chunk), key -> new HashMap<>())
-                    .put(pos, new LeafEntry(type, true));
+        if (persistent && hasAirBelow(block)) {
+            tracked.emitters.put(local, type);
         } else {
-            Map<BlockKey, LeafEntry> particleMap = particleLeavesByChunk.get(chunkKey(chunk));
-            if (particleMap != null) {
-                particleMap.remove(pos);
-                if (particleMap.isEmpty()) {
-                    particleLeavesByChunk.remove(chunkKey(chunk));
-                }
-            }
+            tracked.emitters.remove(local);
         }
 
+        restageChunk(chunk);
         if (!savePersistentChanges) {
             return;
         }
 
-        boolean previousPersistent = previous != null && previous.persistent();
         if (persistent || previousPersistent) {
-            saveChunkData(chunk, map);
+            markPersistentDirty(tracked);
         }
     }
 
@@ -391,91 +1211,188 @@ public class LeafManager implements Listener {
     }
 
     private void unregisterLeafAt(Block block) {
-        Chunk chunk = block.getChunk();
-        Map<BlockKey, LeafEntry> map = leavesByChunk.get(chunkKey(chunk));
-        if (map == null) return;
+        TrackedChunk tracked = getTracked(block.getWorld(), block.getX() >> 4, block.getZ() >> 4);
+        if (tracked == null) return;
 
-        LeafEntry removed = map.remove(blockPos(block));
-        Map<BlockKey, LeafEntry> particleMap = particleLeavesByChunk.get(chunkKey(chunk));
-        if (particleMap != null) {
-            particleMap.remove(blockPos(block));
-            if (particleMap.isEmpty()) {
-                particleLeavesByChunk.remove(chunkKey(chunk));
-            }
+        int local = LeafPos.local(block.getX(), block.getY(), block.getZ());
+        if (tracked.loadPending) {
+            recordPendingEdit(tracked, local, ChunkLeaves.NONE);
+            restageChunk(block.getChunk());
+            return;
         }
-        if (removed != null && removed.persistent()) {
-            saveChunkData(chunk, map);
+
+        int removed = tracked.leaves.remove(local);
+        boolean wasEmitter = tracked.emitters.remove(local);
+
+        if (ChunkLeaves.isPersistent(removed)) {
+            markPersistentDirty(tracked);
+        } else if (removed != ChunkLeaves.NONE || wasEmitter) {
+            // En modo stateless las hojas naturales solo existen como emisores
+            tracked.naturalDirty = true;
+        }
+        if (removed != ChunkLeaves.NONE || wasEmitter) {
+            restageChunk(block.getChunk());
         }
     }
 
-    private void saveChunkData(Chunk chunk, Map<BlockKey, LeafEntry> map) {
+    /**
+     * Guarda las hojas persistentes en el PDC del chunk (BYTE_ARRAY, ver LeafChunkCodec).
+     * Sobrescribe también el formato de texto antiguo si lo había.
+     */
+    private void saveChunkData(Chunk chunk, TrackedChunk tracked) {
         PersistentDataContainer pdc = chunk.getPersistentDataContainer();
+        byte[] encoded = tracked == null ? null : LeafChunkCodec.encode(tracked.leaves, config.typesByDistance);
 
-        if (map == null) {
+        if (encoded == null) {
             pdc.remove(chunkDataKey);
-            return;
-        }
-
-        StringBuilder sb = new StringBuilder();
-        for (Map.Entry<BlockKey, LeafEntry> e : map.entrySet()) {
-            LeafEntry entry = e.getValue();
-            if (!entry.persistent()) continue;
-
-            BlockKey pos = e.getKey();
-            sb.append(pos.x()).append(",")
-                    .append(pos.y()).append(",")
-                    .append(pos.z()).append(":")
-                    .append(entry.type().id()).append(";");
+        } else {
+            pdc.set(chunkDataKey, PersistentDataType.BYTE_ARRAY, encoded);
         }
 
-        if (sb.length() == 0) {
-            pdc.remove(chunkDataKey);
-        } else {
-            pdc.set(chunkDataKey, PersistentDataType.STRING, sb.toString());
+        if (tracked != null) {
+            tracked.persistentDirty = false;
         }
+        flushedChunks++;
     }
 
     /**
-     * Solo desde el mapa (sin autodetección).
+     * Solo desde el mapa (sin autodetección). En modo stateless las hojas
+     * naturales no están en el mapa y devuelven null. Si el chunk aún no se ha
+     * leído (carga pendiente o modo lazy) se deduce del estado del bloque.
+     * Carga el chunk de forma síncrona si no lo está; para consultas de otros
+     * plugins o en bloque usar lookupLeaf / lookupLeafAsync.
      */
     public LeafType getLeafAt(World world, int x, int y, int z) {
-        Chunk chunk = world.getChunkAt(x >> 4, z >> 4);
-        Map<BlockKey, LeafEntry> map = getChunkMap(chunk);
-        LeafEntry entry = map.get(new BlockKey(x, y, z));
-        return entry == null ? null : entry.type();
+        TrackedChunk tracked = getTracked(world, x >> 4, z >> 4);
+        if (tracked == null) {
+            tracked = getOrLoadTracked(world.getChunkAt(x >> 4, z >> 4));
+        }
+        if (tracked.loadPending) {
+            // Sin leer aún: no hay mapa, se responde con el estado del bloque
+            return lookupTracked(world, tracked, x, y, z);
+        }
+        return typeOf(tracked.leaves.get(LeafPos.local(x, y, z)));
     }
 
     /**
      * Devuelve el tipo de hoja o lo detecta y registra si es una azalea host.
      *  - Se usa como fallback si no estaba en el mapa (ej: hojas de Iris).
+     *  - En modo stateless solo se deduce del estado del bloque, sin registrarla.
      */
     public LeafType getOrDetectLeafAt(World world, int x, int y, int z) {
         LeafType type = getLeafAt(world, x, y, z);
         if (type != null) return type;
 
         Block block = world.getBlockAt(x, y, z);
-        if (block.getType() != hostMaterial) {
-            return null;
-        }
+        type = detectFromState(block);
 
-        BlockData data = block.getBlockData();
-        if (data instanceof Leaves leaves) {
-            // Mapeamos por distance-id (para hojas generadas por Iris)
-            type = byDistance.get(leaves.getDistance());
+        if (type != null && !config.naturalStateless) {
+            setLeafAt(block, type, false, false);
         }
 
-        if (type == null && !byId.isEmpty()) {
-            // Fallback: primera hoja definida en config
-            type = byId.values().iterator().next();
-        }
+        return type;
+    }
 
-        if (type != null) {
-            setLeafAt(block, type, false, false);
+    /**
+     * Consulta sin cargar chunks: responde solo con lo que hay en memoria.
+     * Devuelve UNKNOWN si el chunk no está cargado o aún no se ha rastreado.
+     * No registra nada. Solo desde el hilo principal.
+     */
+    public LeafLookup lookupLeaf(World world, int x, int y, int z) {
+        TrackedChunk tracked = getTracked(world, x >> 4, z >> 4);
+        if (tracked == null) {
+            return LeafLookup.UNKNOWN;
+        }
+        return LeafLookup.of(lookupTracked(world, tracked, x, y, z));
+    }
+
+    /**
+     * Consulta que carga el chunk de forma asíncrona si hace falta (sin generar
+     * chunks nuevos: un chunk sin generar responde NONE). Si ya está en memoria
+     * se completa al momento. Hasta que el chunk se lee y escanea, las hojas
+     * naturales se deducen del estado del bloque (ver lookupTracked). Llamar desde el hilo principal; el futuro se
+     * completa también en el hilo principal.
+     */
+    public CompletableFuture<LeafLookup> lookupLeafAsync(World world, int x, int y, int z) {
+        int chunkX = x >> 4;
+        int chunkZ = z >> 4;
+        if (getTracked(world, chunkX, chunkZ) != null) {
+            return CompletableFuture.completedFuture(lookupLeaf(world, x, y, z));
+        }
+
+        return world.getChunkAtAsync(chunkX, chunkZ, false).thenApply(chunk -> {
+            if (chunk == null) {
+                return LeafLookup.NONE;
+            }
+            TrackedChunk tracked = getOrLoadTracked(chunk);
+            return LeafLookup.of(lookupTracked(world, tracked, x, y, z));
+        });
+    }
+
+    /**
+     * Tipo en un chunk rastreado (y por tanto cargado). Las hojas naturales que no están
+     * en el índice (modo stateless o escaneo pendiente) se deducen del estado del bloque;
+     * en un chunk sin leer, todas salvo las cambiadas desde entonces.
+     */
+    private LeafType lookupTracked(World world, TrackedChunk tracked, int x, int y, int z) {
+        int local = LeafPos.local(x, y, z);
+        if (tracked.loadPending) {
+            int edit = tracked.pendingEdits == null ? -1 : tracked.pendingEdits.get(local);
+            return edit >= 0 ? typeOf(edit) : detectFromState(world.getBlockAt(x, y, z));
+        }
+
+        LeafType type = typeOf(tracked.leaves.get(local));
+        if (type == null && (config.naturalStateless || tracked.pendingScan != null)) {
+            type = detectFromState(world.getBlockAt(x, y, z));
+        }
+        return type;
+    }
+
+    /**
+     * Tipo de una azalea host según su distance-id (hojas generadas por Iris).
+     * Si el distance no está configurado se usa la primera hoja de la config.
+     */
+    private LeafType detectFromState(Block block) {
+        if (block.getType() != hostMaterial) {
+            return null;
+        }
+
+        LeafType type = null;
+        BlockData data = block.getBlockData();
+        if (data instanceof Leaves leaves) {
+            type = config.typesByDistance[leaves.getDistance() & 7];
         }
 
+        if (type == null) {
+            // Fallback: primera hoja definida en config
+            type = config.fallback;
+        }
         return type;
     }
 
+    /**
+     * Estimación de memoria del índice de hojas por mundo.
+     */
+    public List<WorldMemory> getMemoryStats() {
+        List<WorldMemory> stats = new ArrayList<>();
+        for (Map.Entry<UUID, LongObjectMap<TrackedChunk>> entry : chunksByWorld.entrySet()) {
+            World world = Bukkit.getWorld(entry.getKey());
+            String name = world == null ? entry.getKey().toString() : world.getName();
+
+            long[] totals = new long[3];
+            entry.getValue().forEach((key, tracked) -> {
+                totals[0] += tracked.leaves.size();
+                totals[1] += tracked.emitters.size();
+                totals[2] += 48 + tracked.leaves.estimateBytes() + tracked.emitters.estimateBytes();
+            });
+
+            int chunks = entry.getValue().size();
+            long legacy = totals[0] * LEGACY_BYTES_PER_LEAF + totals[1] * LEGACY_BYTES_PER_EMITTER;
+            stats.add(new WorldMemory(name, chunks, totals[0], totals[1], totals[2], legacy));
+        }
+        return stats;
+    }
+
     // ==================== EVENTOS ====================
 
     @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
@@ -488,7 +1405,10 @@ public class LeafManager implements Listener {
         BlockData visual = type.visualData().clone();
         block.setBlockData(visual, false);
 
+        markScanTouched(block);
+
         registerLeafAt(block, type);
+        queueReskin(block);
     }
 
     @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
@@ -512,6 +1432,7 @@ public class LeafManager implements Listener {
 
         event.setDropItems(false);
 
+        markScanTouched(block);
         unregisterLeafAt(block);
 
         if (shears) {
@@ -525,27 +1446,222 @@ public class LeafManager implements Listener {
     @EventHandler
     public void onChunkLoad(ChunkLoadEvent event) {
         Chunk chunk = event.getChunk();
-        ChunkKey key = chunkKey(chunk);
+        UUID worldId = chunk.getWorld().getUID();
+        LongObjectMap<TrackedChunk> chunks = chunksByWorld.computeIfAbsent(worldId, id -> new LongObjectMap<>());
+
+        TrackedChunk tracked = new TrackedChunk(worldId, chunk.getX(), chunk.getZ());
+        TrackedChunk previous = chunks.put(LeafPos.chunkKey(chunk.getX(), chunk.getZ()), tracked);
+        if (previous != null) {
+            previous.pendingScan = null;
+            // Lo pendiente del estado anterior se escribe antes de releer el PDC
+            if (previous.loadPending) {
+                writePendingEdits(chunk, previous);
+                tracked.editedWhilePending = previous.editedWhilePending;
+            } else if (previous.persistentDirty) {
+                saveChunkData(chunk, previous);
+            }
+            previous.loadPending = false;
+        }
 
-        Map<BlockKey, LeafEntry> map = loadChunkData(chunk);
-        leavesByChunk.put(key, map);
-        Map<BlockKey, LeafEntry> particleMap = new HashMap<>(extractPersistentLeaves(map));
+        // Leer PDC y marcador se hace con presupuesto (ver processPendingChunkLoads); hasta
+        // entonces las consultas se deducen del estado del bloque y los cambios se apartan.
+        // En modo lazy espera a que un jugador se acerque (ver queueChunksNearPlayers)
+        tracked.loadPending = true;
+        if (!lazyIndexing) {
+            pendingChunkLoads.add(tracked);
+        }
+        invalidateParticleIndexes(worldId, chunk.getX(), chunk.getZ());
 
-        // Detectar hojas de Iris sin persistirlas
-        scanChunkForHostLeaves(chunk, map, particleMap);
+        // Durante un reload el chunk también tiene que entrar en el índice nuevo
+        if (reloadJob != null) {
+            reloadJob.remove(worldId, chunk.getX(), chunk.getZ());
+            reloadJob.urgent.add(chunk);
+        }
+    }
 
-        if (!particleMap.isEmpty()) {
-            particleLeavesByChunk.put(key, particleMap);
-        } else {
-            particleLeavesByChunk.remove(key);
+    /**
+     * Lee las hojas colocadas y el marcador de escaneo de un chunk rastreado.
+     */
+    private void completeChunkLoad(Chunk chunk, TrackedChunk tracked) {
+        tracked.loadPending = false;
+        loadChunkData(chunk, tracked, config, true);
+
+        IntIntMap edits = tracked.pendingEdits;
+        tracked.pendingEdits = null;
+        if (applyPendingEdits(chunk, tracked, edits)) {
+            markPersistentDirty(tracked);
+        }
+        boolean edited = tracked.editedWhilePending;
+        tracked.editedWhilePending = false;
+
+        // Paleta recién leída del disco (compactada): sin estados que ya no están en el chunk
+        int palette = scanner.hostPaletteMask(chunk);
+        tracked.hostStates = palette & ChunkScanner.CANONICAL_STATES;
+
+        // Si el chunk ya se escaneó con esta config (y no cambió desde entonces), basta con el marcador
+        if (edited || !loadScanCache(chunk, tracked, config, palette)) {
+            // Detectar hojas de Iris sin persistirlas (snapshot + worker)
+            scheduleHostScan(chunk, tracked, config, null);
         }
+        // Los escaneos posteriores del chunk ya no son de la reconstrucción inicial
+        tracked.startup = false;
+    }
+
+    private void processPendingChunkLoads(long deadline) {
+        if (lazyIndexing && --lazyIndexCountdown <= 0) {
+            lazyIndexCountdown = LAZY_INDEX_INTERVAL;
+            queueChunksNearPlayers();
+        }
+
+        TrackedChunk tracked;
+        while ((tracked = pendingChunkLoads.poll()) != null) {
+            if (tracked.loadPending) {
+                World world = Bukkit.getWorld(tracked.worldId);
+                LongObjectMap<TrackedChunk> chunks = chunksByWorld.get(tracked.worldId);
+                // Descargado o reemplazado mientras esperaba: nada que leer
+                if (world != null && chunks != null && chunks.get(LeafPos.chunkKey(tracked.x, tracked.z)) == tracked) {
+                    completeChunkLoad(world.getChunkAt(tracked.x, tracked.z), tracked);
+                }
+            }
+            if (System.nanoTime() >= deadline) return;
+        }
+    }
+
+    /**
+     * Modo lazy: rehace la cola de carga con los chunks sin leer a indexing.radius chunks
+     * de algún jugador, del más cercano al más lejano. Los que se alejaron antes de leerse
+     * salen de la cola; un chunk que nunca tiene jugadores cerca no se escanea.
+     */
+    private void queueChunksNearPlayers() {
+        record Candidate(TrackedChunk chunk, int distance) {}
+
+        Map<TrackedChunk, Integer> nearest = new IdentityHashMap<>();
+        int radius = lazyIndexRadius;
+        int radiusSquared = radius * radius;
+        for (World world : Bukkit.getWorlds()) {
+            LongObjectMap<TrackedChunk> chunks = chunksByWorld.get(world.getUID());
+            if (chunks == null) continue;
+
+            for (Player player : world.getPlayers()) {
+                Location loc = player.getLocation();
+                int pcx = loc.getBlockX() >> 4;
+                int pcz = loc.getBlockZ() >> 4;
+                for (int dx = -radius; dx <= radius; dx++) {
+                    for (int dz = -radius; dz <= radius; dz++) {
+                        int distance = dx * dx + dz * dz;
+                        if (distance > radiusSquared) continue;
+
+                        TrackedChunk tracked = chunks.get(LeafPos.chunkKey(pcx + dx, pcz + dz));
+                        if (tracked != null && tracked.loadPending) {
+                            nearest.merge(tracked, distance, Math::min);
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Candidate> candidates = new ArrayList<>(nearest.size());
+        nearest.forEach((tracked, distance) -> candidates.add(new Candidate(tracked, distance)));
+        candidates.sort(Comparator.comparingInt(Candidate::distance));
+
+        pendingChunkLoads.clear();
+        for (Candidate candidate : candidates) {
+            pendingChunkLoads.add(candidate.chunk());
+        }
+    }
+
+    private boolean isNearPlayer(World world, int chunkX, int chunkZ) {
+        int radiusSquared = lazyIndexRadius * lazyIndexRadius;
+        for (Player player : world.getPlayers()) {
+            Location loc = player.getLocation();
+            int dx = (loc.getBlockX() >> 4) - chunkX;
+            int dz = (loc.getBlockZ() >> 4) - chunkZ;
+            if (dx * dx + dz * dz <= radiusSquared) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @EventHandler
     public void onChunkUnload(ChunkUnloadEvent event) {
-        ChunkKey key = chunkKey(event.getChunk());
-        leavesByChunk.remove(key);
-        particleLeavesByChunk.remove(key);
+        Chunk chunk = event.getChunk();
+        LongObjectMap<TrackedChunk> chunks = chunksByWorld.get(chunk.getWorld().getUID());
+        if (chunks == null) return;
+
+        if (reloadJob != null) {
+            reloadJob.remove(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ());
+        }
+
+        TrackedChunk tracked = chunks.remove(LeafPos.chunkKey(chunk.getX(), chunk.getZ()));
+        if (tracked == null) return;
+        if (tracked.loadPending) {
+            writePendingEdits(chunk, tracked);
+        }
+        tracked.loadPending = false;
+        invalidateParticleIndexes(tracked.worldId, tracked.x, tracked.z);
+
+        if (tracked.naturalDirty && tracked.pendingScan == null) {
+            saveScanCache(chunk, tracked, config);
+        }
+        if (tracked.persistentDirty) {
+            saveChunkData(chunk, tracked);
+        }
+        tracked.pendingScan = null;
+    }
+
+    @EventHandler
+    public void onWorldSave(WorldSaveEvent event) {
+        flushPendingEdits(event.getWorld().getUID());
+        flushDirtyChunks(event.getWorld().getUID());
+    }
+
+    @EventHandler
+    public void onWorldUnload(WorldUnloadEvent event) {
+        flushPendingEdits(event.getWorld().getUID());
+        flushDirtyChunks(event.getWorld().getUID());
+        LongObjectMap<TrackedChunk> chunks = chunksByWorld.remove(event.getWorld().getUID());
+        if (chunks != null) {
+            chunks.forEach((key, tracked) -> tracked.pendingScan = null);
+        }
+        particleIndexByPlayer.values().removeIf(index -> event.getWorld().getUID().equals(index.worldId));
+        if (reloadJob != null) {
+            LongObjectMap<TrackedChunk> staged = reloadJob.chunks.remove(event.getWorld().getUID());
+            if (staged != null) {
+                staged.forEach((key, tracked) -> tracked.pendingScan = null);
+            }
+        }
+    }
+
+    /**
+     * Las hojas rastreadas no deben decaer; si el estado persistente se perdió
+     * (cambio externo), se cancela y se repinta.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
+    public void onLeavesDecay(LeavesDecayEvent event) {
+        Block block = event.getBlock();
+        if (block.getType() != hostMaterial) return;
+
+        // Sin escanear del todo (sin rastrear, carga pendiente o escaneo en curso) el índice
+        // aún no conoce las hojas naturales: lookupTracked las deduce del estado del bloque
+        TrackedChunk tracked = getTracked(block.getWorld(), block.getX() >> 4, block.getZ() >> 4);
+        LeafType type = tracked == null
+                ? detectFromState(block)
+                : lookupTracked(block.getWorld(), tracked, block.getX(), block.getY(), block.getZ());
+        if (type == null) return;
+
+        event.setCancelled(true);
+        queueReskin(block);
+    }
+
+    /**
+     * Un cubo de agua sobre una hoja la deja waterlogged; se repinta al tick siguiente.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onBucketEmpty(PlayerBucketEmptyEvent event) {
+        Block block = event.getBlock();
+        if (block.getType() != hostMaterial) return;
+        queueReskin(block);
     }
 
     @EventHandler
@@ -553,61 +1669,402 @@ public class LeafManager implements Listener {
         // Nada que hacer: los bloques ya están en el estado correcto y no necesitan "reskins".
     }
 
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        particleIndexByPlayer.remove(event.getPlayer().getUniqueId());
+        particleLevels.remove(event.getPlayer().getUniqueId());
+    }
+
     // ==================== ESCANEO DE CHUNK (IRIS) ====================
 
     /**
-     * Escanea un chunk para encontrar AZALEA_LEAVES de Iris y registrarlas si
-     * aún no están en el mapa (no pisa hojas ya registradas por jugadores).
+     * Lanza el escaneo async de un chunk para encontrar AZALEA_LEAVES de Iris.
+     * Si la paleta del chunk no contiene el bloque host, no se captura nada.
+     */
+    private void scheduleHostScan(Chunk chunk, TrackedChunk tracked, LeafConfig cfg, ReloadJob job) {
+        if (cfg.byId.isEmpty()) return;
+        if (!scanner.mayContainHost(chunk)) return;
+
+        PendingScan pending = new PendingScan(tracked, cfg, job);
+        tracked.pendingScan = pending;
+        if (job != null) {
+            job.pendingScans++;
+        }
+        if (startupRebuild != null && tracked.startup) {
+            pending.startup = true;
+            startupRebuild.scans++;
+            startupRebuild.pendingScans++;
+        }
+
+        scanner.scanAsync(chunk, cfg.typesByDistance, cfg.fallback).whenComplete((result, error) -> {
+            if (error != null) {
+                plugin.getLogger().log(Level.WARNING, "Error escaneando chunk " + tracked.x + "," + tracked.z, error);
+            }
+            // Sin resultado (error) también se entrega: así el reload que lo espera no se queda colgado
+            pending.result = result;
+            completedScans.add(pending);
+        });
+    }
+
+    private void markScanTouched(Block block) {
+        TrackedChunk tracked = getTracked(block.getWorld(), block.getX() >> 4, block.getZ() >> 4);
+        if (tracked != null && tracked.pendingScan != null) {
+            tracked.pendingScan.touched = true;
+        }
+    }
+
+    /**
+     * Aplica en el hilo principal los resultados de escaneo listos hasta el deadline
+     * del planificador. Un resultado a medias se continúa en el siguiente tick.
      */
-    private void scanChunkForHostLeaves(Chunk chunk, Map<BlockKey, LeafEntry> map, Map<BlockKey, LeafEntry> particleMap) {
-        World world = chunk.getWorld();
+    private void applyScanResults(long deadline) {
+        while (true) {
+            if (applyingScan == null) {
+                applyingScan = completedScans.poll();
+                if (applyingScan == null) return;
+            }
 
-        int minY = world.getMinHeight();
-        int maxY = world.getMaxHeight();
+            PendingScan pending = applyingScan;
+            if (pending.chunk.pendingScan != pending || pending.result == null) {
+                // Chunk descargado, recargado o reload de config: resultado obsoleto
+                if (pending.chunk.pendingScan == pending) {
+                    pending.chunk.pendingScan = null;
+                }
+                finishScan(pending);
+                continue;
+            }
 
-        int baseX = chunk.getX() << 4;
-        int baseZ = chunk.getZ() << 4;
+            if (!applyScanSlice(pending, deadline)) {
+                return;
+            }
 
-        for (int dx = 0; dx < 16; dx++) {
-            for (int dz = 0; dz < 16; dz++) {
-                for (int y = minY; y < maxY; y++) {
-                    int x = baseX + dx;
-                    int z = baseZ + dz;
+            TrackedChunk tracked = pending.chunk;
+            tracked.pendingScan = null;
+            finishScan(pending);
+            saveScanCacheIfLoaded(tracked, pending.config);
 
-                    Block block = world.getBlockAt(x, y, z);
-                    if (block.getType() != hostMaterial) continue;
+            if (System.nanoTime() >= deadline) return;
+        }
+    }
 
-                    BlockKey pos = new BlockKey(x, y, z);
-                    if (map.containsKey(pos)) {
-                        // Ya hay una hoja registrada aquí (probablemente de jugador)
-                        continue;
-                    }
+    private void finishScan(PendingScan pending) {
+        applyingScan = null;
+        if (pending.job != null) {
+            pending.job.pendingScans--;
+        }
+        if (pending.startup && startupRebuild != null) {
+            startupRebuild.pendingScans--;
+        }
+    }
 
-                    BlockData data = block.getBlockData();
-                    LeafType type = null;
-                    boolean matchedDistance = false;
+    /**
+     * Registra las hojas detectadas sin pisar hojas ya registradas por jugadores.
+     * Solo lee/escribe el mundo para hojas que necesitan corregir su estado o
+     * si el chunk cambió desde que se capturó el snapshot.
+     *
+     * @return true si se terminó el resultado completo
+     */
+    private boolean applyScanSlice(PendingScan pending, long deadline) {
+        TrackedChunk tracked = pending.chunk;
+        World world = Bukkit.getWorld(tracked.worldId);
+        if (world == null) {
+            return true;
+        }
 
-                    if (data instanceof Leaves leaves) {
-                        type = byDistance.get(leaves.getDistance());
-                        matchedDistance = (type != null);
-                    }
+        ChunkScanner.ScanResult result = pending.result;
+        int baseX = tracked.x << 4;
+        int baseZ = tracked.z << 4;
 
-                    if (type == null && !byId.isEmpty()) {
-                        type = byId.values().iterator().next();
-                    }
+        while (pending.cursor < result.size()) {
+            int i = pending.cursor++;
+            if ((i % SCAN_APPLY_CHECK_INTERVAL) == 0 && i > 0 && System.nanoTime() >= deadline) {
+                pending.cursor--;
+                return false;
+            }
 
-                    if (type != null) {
-                        map.put(pos, new LeafEntry(type, false));
-                        applyLeafState(block, type);
-                        if (matchedDistance) {
-                            particleMap.put(pos, new LeafEntry(type, false));
-                        }
-                    }
+            int packed = result.positions()[i];
+            int x = baseX + (packed & 15);
+            int z = baseZ + ((packed >> 4) & 15);
+            int y = result.minY() + (packed >>> 8);
+
+            int local = LeafPos.local(x, y, z);
+            if (tracked.leaves.contains(local)) {
+                // Ya hay una hoja registrada aquí (probablemente de jugador)
+                continue;
+            }
+
+            LeafType type = result.types()[i];
+            byte flags = result.flags()[i];
+            // En modo packets el estado visual solo existe en los paquetes
+            boolean needsFix = (flags & ChunkScanner.FLAG_NEEDS_FIX) != 0 && !pending.config.packetVisuals;
+
+            if (needsFix || pending.touched) {
+                Block block = world.getBlockAt(x, y, z);
+                if (block.getType() != hostMaterial) continue;
+                if (needsFix) {
+                    block.setBlockData(type.visualData(), false);
                 }
             }
+
+            if (!pending.config.naturalStateless) {
+                tracked.leaves.put(local, ChunkLeaves.code(type.distanceId(), false));
+            }
+            tracked.hostStates |= ChunkScanner.canonicalStateBit(type.distanceId());
+            // Emite solo si coincide el distance y hay aire debajo; si el chunk cambió
+            // desde el snapshot se comprueba en vivo
+            boolean airBelow = (flags & ChunkScanner.FLAG_AIR_BELOW) != 0;
+            if (pending.touched && (flags & ChunkScanner.FLAG_MATCHED) != 0) {
+                airBelow = world.getBlockAt(x, y - 1, z).getType().isAir();
+            }
+            if ((flags & ChunkScanner.FLAG_MATCHED) != 0 && airBelow) {
+                tracked.emitters.put(local, type);
+            }
+        }
+
+        return true;
+    }
+
+    // ==================== MARCADOR DE ESCANEO ====================
+
+    /**
+     * Si el chunk tiene un marcador con la versión y config actuales y su paleta de
+     * estados host no ha cambiado, registra las hojas naturales cacheadas sin escanear.
+     * Del mundo solo se lee el material en cada posición cacheada: una hoja quitada sin
+     * evento (plugins, comandos) no vuelve al índice y el marcador se reescribe sin ella.
+     *
+     * @param palette huella actual de estados host del chunk (ver ChunkScanner#hostPaletteMask)
+     * @return true si el marcador era válido (no hace falta escanear)
+     */
+    private boolean loadScanCache(Chunk chunk, TrackedChunk tracked, LeafConfig cfg, int palette) {
+        PersistentDataContainer pdc = chunk.getPersistentDataContainer();
+        Long marker = pdc.get(scanMarkerKey, PersistentDataType.LONG);
+        if (marker == null || marker != cfg.scanMarker()) {
+            return false;
+        }
+
+        // Cambios sin eventos (WorldEdit, estructuras) que añaden o quitan estados host de la
+        // paleta: la caché ya no describe el chunk y hay que escanear
+        Integer saved = pdc.get(scanPaletteKey, PersistentDataType.INTEGER);
+        if (saved == null || saved != palette) {
+            return false;
+        }
+
+        int[] natural = pdc.get(naturalLeavesKey, PersistentDataType.INTEGER_ARRAY);
+        if (natural == null) {
+            return true;
+        }
+
+        int minY = chunk.getWorld().getMinHeight();
+
+        for (int value : natural) {
+            boolean emitter = (value & NATURAL_EMITTER_BIT) != 0;
+            if (!emitter && cfg.naturalStateless) continue;
+
+            LeafType type = cfg.typesByDistance[(value >>> NATURAL_DISTANCE_SHIFT) & 7];
+            if (type == null) continue;
+
+            int x = value & 15;
+            int y = minY + ((value >>> 8) & 0xFFF);
+            int z = (value >>> 4) & 15;
+            int local = LeafPos.local(x, y, z);
+            if (tracked.leaves.contains(local)) continue;
+            if (chunk.getBlock(x, y, z).getType() != hostMaterial) {
+                tracked.naturalDirty = true;
+                continue;
+            }
+
+            if (!cfg.naturalStateless) {
+                tracked.leaves.put(local, ChunkLeaves.code(type.distanceId(), false));
+            }
+            if (emitter) {
+                tracked.emitters.put(local, type);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Guarda el marcador de escaneo y las hojas naturales que hay en memoria para el chunk.
+     * En modo stateless solo quedan los emisores naturales.
+     */
+    private void saveScanCache(Chunk chunk, TrackedChunk tracked, LeafConfig cfg) {
+        int minY = chunk.getWorld().getMinHeight();
+
+        int[] natural = new int[tracked.leaves.size() + tracked.emitters.size()];
+        int[] count = {0};
+        if (cfg.naturalStateless) {
+            for (int i = 0; i < tracked.emitters.size(); i++) {
+                int local = tracked.emitters.positionAt(i);
+                if (tracked.leaves.contains(local)) continue;
+
+                natural[count[0]++] = ((LeafPos.y(local) - minY) << 8) | (LeafPos.localZ(local) << 4) | LeafPos.localX(local)
+                        | NATURAL_EMITTER_BIT | (tracked.emitters.typeAt(i).distanceId() << NATURAL_DISTANCE_SHIFT);
+            }
+        } else {
+            tracked.leaves.forEach((local, code) -> {
+                if (ChunkLeaves.isPersistent(code)) return;
+
+                int value = ((LeafPos.y(local) - minY) << 8) | (LeafPos.localZ(local) << 4) | LeafPos.localX(local)
+                        | (ChunkLeaves.distance(code) << NATURAL_DISTANCE_SHIFT);
+                if (tracked.emitters.contains(local)) {
+                    value |= NATURAL_EMITTER_BIT;
+                }
+                natural[count[0]++] = value;
+            });
+        }
+
+        PersistentDataContainer pdc = chunk.getPersistentDataContainer();
+        pdc.set(scanMarkerKey, PersistentDataType.LONG, cfg.scanMarker());
+        // En modo mundo la paleta en memoria aún tiene los estados que el escaneo acaba de
+        // corregir; al recargar el chunk ya no estarían. Se guarda lo que quedará en el disco
+        int palette = cfg.packetVisuals ? scanner.hostPaletteMask(chunk) : tracked.hostStates;
+        pdc.set(scanPaletteKey, PersistentDataType.INTEGER, palette);
+        if (count[0] == 0) {
+            pdc.remove(naturalLeavesKey);
+        } else {
+            pdc.set(naturalLeavesKey, PersistentDataType.INTEGER_ARRAY, Arrays.copyOf(natural, count[0]));
+        }
+        tracked.naturalDirty = false;
+    }
+
+    private void saveScanCacheIfLoaded(TrackedChunk tracked, LeafConfig cfg) {
+        World world = Bukkit.getWorld(tracked.worldId);
+        if (world == null || !world.isChunkLoaded(tracked.x, tracked.z)) return;
+        saveScanCache(world.getChunkAt(tracked.x, tracked.z), tracked, cfg);
+    }
+
+    /**
+     * Guarda los marcadores de todos los chunks con hojas naturales modificadas.
+     */
+    private void flushScanCaches() {
+        for (LongObjectMap<TrackedChunk> chunks : chunksByWorld.values()) {
+            chunks.forEach((key, tracked) -> {
+                if (tracked.naturalDirty && tracked.pendingScan == null) {
+                    saveScanCacheIfLoaded(tracked, config);
+                }
+            });
+        }
+    }
+
+    // ==================== GUARDADO DIFERIDO ====================
+
+    /**
+     * Escribe los cambios apartados de los chunks sin leer (worldId null = todos los mundos).
+     */
+    private void flushPendingEdits(UUID worldId) {
+        for (Map.Entry<UUID, LongObjectMap<TrackedChunk>> entry : chunksByWorld.entrySet()) {
+            if (worldId != null && !worldId.equals(entry.getKey())) continue;
+            World world = Bukkit.getWorld(entry.getKey());
+            if (world == null) continue;
+
+            entry.getValue().forEach((key, tracked) -> {
+                if (tracked.pendingEdits != null && world.isChunkLoaded(tracked.x, tracked.z)) {
+                    writePendingEdits(world.getChunkAt(tracked.x, tracked.z), tracked);
+                }
+            });
+        }
+    }
+
+    private void markPersistentDirty(TrackedChunk tracked) {
+        if (!tracked.persistentDirty) {
+            tracked.persistentDirty = true;
+            dirtyChunks.add(tracked);
+        }
+    }
+
+    /**
+     * Vaciado periódico según persistence.flush-interval-seconds. Empieza cuando toca y
+     * se reparte entre ticks con el deadline del planificador hasta vaciar la lista.
+     */
+    private void tickPersistence(long deadline) {
+        if (!periodicFlushRunning) {
+            if (flushIntervalSeconds <= 0 || dirtyChunks.isEmpty()) return;
+            if (System.currentTimeMillis() - lastFlushMillis < flushIntervalSeconds * 1000L) return;
+            periodicFlushRunning = true;
+            lastFlushMillis = System.currentTimeMillis();
+        }
+
+        flushDirtyChunks(null, deadline);
+        if (dirtyChunks.isEmpty()) {
+            periodicFlushRunning = false;
+        }
+    }
+
+    /**
+     * Escribe en el PDC todos los chunks con hojas colocadas pendientes.
+     *
+     * @param worldId solo ese mundo, o null para todos
+     */
+    private void flushDirtyChunks(UUID worldId) {
+        if (worldId == null) {
+            lastFlushMillis = System.currentTimeMillis();
+            periodicFlushRunning = false;
+        }
+        flushDirtyChunks(worldId, Long.MAX_VALUE);
+    }
+
+    /**
+     * Escribe chunks pendientes hasta el deadline (System.nanoTime()); el resto se queda
+     * en la lista. Los que ya no están rastreados (descargados) se guardaron al
+     * descargar y se descartan.
+     */
+    private void flushDirtyChunks(UUID worldId, long deadline) {
+        if (dirtyChunks.isEmpty()) return;
+
+        long start = System.nanoTime();
+        int written = 0;
+        int kept = 0;
+
+        for (int i = 0; i < dirtyChunks.size(); i++) {
+            TrackedChunk tracked = dirtyChunks.get(i);
+            if (!tracked.persistentDirty) continue;
+
+            if (written > 0 && System.nanoTime() >= deadline) {
+                dirtyChunks.set(kept++, tracked);
+                continue;
+            }
+
+            if (worldId != null && !worldId.equals(tracked.worldId)) {
+                dirtyChunks.set(kept++, tracked);
+                continue;
+            }
+
+            // Chunk del índice nuevo de un reload: se guarda cuando pase a estar en uso
+            if (reloadJob != null && reloadJob.owns(tracked)) {
+                dirtyChunks.set(kept++, tracked);
+                continue;
+            }
+
+            World world = Bukkit.getWorld(tracked.worldId);
+            if (world == null || !world.isChunkLoaded(tracked.x, tracked.z)
+                    || getTracked(world, tracked.x, tracked.z) != tracked) {
+                tracked.persistentDirty = false;
+                continue;
+            }
+
+            saveChunkData(world.getChunkAt(tracked.x, tracked.z), tracked);
+            written++;
+        }
+        dirtyChunks.subList(kept, dirtyChunks.size()).clear();
+
+        if (written > 0) {
+            long elapsed = System.nanoTime() - start;
+            flushCount++;
+            lastFlushNanos = elapsed;
+            maxFlushNanos = Math.max(maxFlushNanos, elapsed);
+            totalFlushNanos += elapsed;
         }
     }
 
+    public PersistenceStats getPersistenceStats() {
+        int pending = 0;
+        for (TrackedChunk tracked : dirtyChunks) {
+            if (tracked.persistentDirty) pending++;
+        }
+        return new PersistenceStats(pending, flushCount, flushedChunks, lastFlushNanos, maxFlushNanos, totalFlushNanos);
+    }
+
     // ==================== DROPS MANO ====================
 
     private void dropHandLoot(World world, org.bukkit.Location loc) {
@@ -631,7 +2088,7 @@ public class LeafManager implements Listener {
 
 
     private void applyLeafState(Block block, LeafType type) {
-        if (type == null) return;
+        if (type == null || config.packetVisuals) return;
 
         if (block.getType() != hostMaterial) {
             block.setType(hostMaterial, false);
@@ -660,113 +2117,404 @@ public class LeafManager implements Listener {
         }
     }
 
+    /**
+     * Camino rápido: se dispara en cada update de cualquier azalea host (redstone, agua,
+     * árboles grandes). Toda azalea host es una hoja custom (detectFromState recurre a la
+     * hoja por defecto), así que decidir solo necesita el material; no se lee BlockData:
+     *  - chunk sin rastrear, sin leer o con escaneo en curso: basta el material
+     *  - indexed: la presencia en el índice es la comprobación; solo una posición escaneada
+     *    que no está (cambio sin eventos) se detecta y registra, una vez
+     *  - stateless: basta el material
+     * Solo se repinta si el cambio vino del propio bloque; un update de vecino cancelado
+     * no altera el estado. Una posición ya en cola no reserva otro ReskinPos. El bloque de
+     * origen solo se pide si hay algo que hacer con él (repintar o recalcular el emisor).
+     */
     @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
     public void onLeafPhysics(BlockPhysicsEvent event) {
+        physicsSeen++;
+
         Block block = event.getBlock();
-        if (block.getType() != hostMaterial) return;
+        if (block.getType() != hostMaterial || config.byId.isEmpty()) {
+            physicsNotHost++;
+            return;
+        }
 
-        LeafType type = getOrDetectLeafAt(block.getWorld(), block.getX(), block.getY(), block.getZ());
-        if (type == null) return;
+        World world = block.getWorld();
+        int x = block.getX();
+        int y = block.getY();
+        int z = block.getZ();
+
+        TrackedChunk tracked = getTracked(world, x >> 4, z >> 4);
+        if (tracked != null && !tracked.loadPending && tracked.pendingScan == null && !config.naturalStateless
+                && !tracked.leaves.contains(LeafPos.local(x, y, z))) {
+            getOrDetectLeafAt(world, x, y, z);
+        }
 
-        applyLeafState(block, type);
         event.setCancelled(true);
+        physicsCancelled++;
+
+        // Modo packets en un chunk sin rastrear: ni repintado ni emisor que recalcular
+        if (config.packetVisuals && tracked == null) return;
+
+        Block source = event.getSourceBlock();
+        if (source == null) return;
+        int sourceX = source.getX();
+        int sourceY = source.getY();
+        int sourceZ = source.getZ();
+        if (sourceX != x || sourceZ != z) return;
+
+        if (sourceY == y) {
+            queuePhysicsReskin(world, tracked, x, y, z);
+        } else if (sourceY == y - 1 && tracked != null) {
+            // Cambió el bloque de debajo (agua, pistón, explosión...): recalcular si puede emitir
+            updateEmitter(world, x, y, z, source.getType().isAir());
+        }
+    }
+
+    // ==================== NIVEL DE PARTÍCULAS POR JUGADOR ====================
+
+    /**
+     * Nivel del jugador; se lee del PDC la primera vez y se cachea hasta que se desconecta.
+     */
+    public ParticleLevel getParticleLevel(Player player) {
+        ParticleLevel cached = particleLevels.get(player.getUniqueId());
+        if (cached != null) {
+            return cached;
+        }
+
+        String stored = player.getPersistentDataContainer().get(particleLevelKey, PersistentDataType.STRING);
+        ParticleLevel level = ParticleLevel.fromId(stored);
+        if (level == null) {
+            level = ParticleLevel.NORMAL;
+        }
+        particleLevels.put(player.getUniqueId(), level);
+        return level;
+    }
+
+    public void setParticleLevel(Player player, ParticleLevel level) {
+        PersistentDataContainer pdc = player.getPersistentDataContainer();
+        if (level == ParticleLevel.NORMAL) {
+            pdc.remove(particleLevelKey);
+        } else {
+            pdc.set(particleLevelKey, PersistentDataType.STRING, level.id());
+        }
+        particleLevels.put(player.getUniqueId(), level);
+    }
+
+    public ParticleThrottle.Budget getParticleBudget() {
+        return particleThrottle.budget(maxParticlesPerTick, maxParticlesPerPlayer);
+    }
+
+    public SchedulerStats getSchedulerStats() {
+        return new SchedulerStats(workScheduler.getBudgetNanos(), workScheduler.getLastTickNanos(),
+                workScheduler.getMaxTickNanos(), workScheduler.getStats());
+    }
+
+    public IndexingStats getIndexingStats() {
+        int[] counts = new int[2];
+        for (LongObjectMap<TrackedChunk> chunks : chunksByWorld.values()) {
+            chunks.forEach((key, tracked) -> {
+                counts[0]++;
+                if (tracked.loadPending) counts[1]++;
+            });
+        }
+        return new IndexingStats(lazyIndexing, lazyIndexRadius, counts[0], counts[1], pendingChunkLoads.size());
     }
 
+    public PhysicsStats getPhysicsStats() {
+        return new PhysicsStats(physicsSeen, physicsCancelled, physicsNotHost);
+    }
+
+    /**
+     * Encola los chunks ya cargados; processRebuildQueue los pasa por onChunkLoad con presupuesto.
+     * Mientras dura, los escaneos se reparten entre todos los núcleos (ChunkScanner#beginBurst)
+     * y sus resultados se aplican por ticks como los de cualquier otro chunk.
+     */
     private void rebuildLoadedChunks() {
+        StartupRebuild rebuild = startupRebuild;
+        if (rebuild == null) return;
+
         for (World world : Bukkit.getWorlds()) {
-            for (Chunk chunk : world.getLoadedChunks()) {
-                leavesByChunk.remove(chunkKey(chunk));
-                particleLeavesByChunk.remove(chunkKey(chunk));
-                ChunkLoadEvent fake = new ChunkLoadEvent(chunk, false);
-                onChunkLoad(fake);
+            pendingRebuild.addAll(Arrays.asList(world.getLoadedChunks()));
+        }
+        rebuild.chunks = pendingRebuild.size();
+        rebuild.threads = scanner.beginBurst();
+    }
+
+    private void processRebuildQueue(long deadline) {
+        StartupRebuild rebuild = startupRebuild;
+        Chunk chunk;
+        while ((chunk = pendingRebuild.poll()) != null) {
+            if (chunk.isLoaded()) {
+                onChunkLoad(new ChunkLoadEvent(chunk, false));
+                TrackedChunk tracked = getTracked(chunk.getWorld(), chunk.getX(), chunk.getZ());
+                // En modo lazy solo los que esperan a un jugador cercano; el resto puede no leerse nunca
+                if (rebuild != null && tracked != null && tracked.loadPending
+                        && (!lazyIndexing || isNearPlayer(chunk.getWorld(), chunk.getX(), chunk.getZ()))) {
+                    tracked.startup = true;
+                    rebuild.loads.add(tracked);
+                }
+            }
+            if (System.nanoTime() >= deadline) return;
+        }
+
+        if (rebuild != null && rebuild.threads > 0 && rebuild.pendingScans <= 0) {
+            rebuild.loads.removeIf(tracked -> !isStartupLoadWaiting(tracked));
+            if (rebuild.loads.isEmpty()) {
+                finishStartupRebuild(rebuild);
             }
         }
     }
 
-    private Map<BlockKey, LeafEntry> loadChunkData(Chunk chunk) {
-        Map<BlockKey, LeafEntry> map = new HashMap<>();
+    /**
+     * El chunk de la reconstrucción inicial sigue rastreado y sin leer (en modo lazy,
+     * además con un jugador cerca que lo vaya a leer).
+     */
+    private boolean isStartupLoadWaiting(TrackedChunk tracked) {
+        if (!tracked.startup || !tracked.loadPending) return false;
+        LongObjectMap<TrackedChunk> chunks = chunksByWorld.get(tracked.worldId);
+        if (chunks == null || chunks.get(LeafPos.chunkKey(tracked.x, tracked.z)) != tracked) return false;
+        if (!lazyIndexing) return true;
+        World world = Bukkit.getWorld(tracked.worldId);
+        return world != null && isNearPlayer(world, tracked.x, tracked.z);
+    }
+
+    private void finishStartupRebuild(StartupRebuild rebuild) {
+        startupRebuild = null;
+        scanner.endBurst();
+
+        long ms = Math.max(1L, (System.nanoTime() - rebuild.startNanos) / 1_000_000L);
+        plugin.getLogger().info("ExtraLeaves: reconstrucción inicial de " + rebuild.chunks + " chunks ("
+                + rebuild.scans + " escaneados, " + rebuild.threads + " hilos) en " + ms + " ms, "
+                + String.format(Locale.ROOT, "%.1f", rebuild.chunks * 1000.0 / ms) + " chunks/s.");
+    }
+
+    /**
+     * Carga las hojas persistidas (colocadas por jugadores) en el estado del chunk.
+     * Acepta el formato binario actual y el de texto antiguo; este último se
+     * reescribe en binario en el próximo guardado.
+     */
+    private void loadChunkData(Chunk chunk, TrackedChunk tracked, LeafConfig cfg, boolean reskin) {
         PersistentDataContainer pdc = chunk.getPersistentDataContainer();
-        String raw = pdc.get(chunkDataKey, PersistentDataType.STRING);
 
+        if (pdc.has(chunkDataKey, PersistentDataType.BYTE_ARRAY)) {
+            byte[] encoded = pdc.get(chunkDataKey, PersistentDataType.BYTE_ARRAY);
+            if (encoded == null || encoded.length == 0) return;
+
+            World world = chunk.getWorld();
+            int baseX = chunk.getX() << 4;
+            int baseZ = chunk.getZ() << 4;
+            try {
+                LeafChunkCodec.decode(encoded, cfg.byId, (local, type) -> {
+                    tracked.leaves.put(local, ChunkLeaves.code(type.distanceId(), true));
+                    if (hasAirBelow(chunk, local)) {
+                        tracked.emitters.put(local, type);
+                    }
+                    if (reskin) {
+                        queueReskin(world, baseX + LeafPos.localX(local), LeafPos.y(local), baseZ + LeafPos.localZ(local));
+                    }
+                });
+            } catch (IllegalArgumentException ex) {
+                plugin.getLogger().warning("Datos de hojas inválidos en chunk " + chunk.getX() + "," + chunk.getZ() + ": " + ex.getMessage());
+            }
+            return;
+        }
+
+        if (pdc.has(chunkDataKey, PersistentDataType.STRING)) {
+            loadLegacyChunkData(chunk, tracked, pdc.get(chunkDataKey, PersistentDataType.STRING), cfg, reskin);
+        }
+    }
+
+    /**
+     * Formato de texto anterior: "x,y,z:id;" por hoja.
+     */
+    private void loadLegacyChunkData(Chunk chunk, TrackedChunk tracked, String raw, LeafConfig cfg, boolean reskin) {
+        if (raw == null || raw.isEmpty()) return;
+
+        markPersistentDirty(tracked);
         int skipped = 0;
 
-        if (raw != null && !raw.isEmpty()) {
-            String[] parts = raw.split(";");
-            for (String part : parts) {
-                if (part.isEmpty()) continue;
-                String[] pv = part.split(":");
-                if (pv.length != 2) continue;
-
-                String[] coords = pv[0].split(",");
-                if (coords.length != 3) continue;
-
-                int x, y, z;
-                try {
-                    x = Integer.parseInt(coords[0]);
-                    y = Integer.parseInt(coords[1]);
-                    z = Integer.parseInt(coords[2]);
-                } catch (NumberFormatException ex) {
-                    continue;
-                }
+        String[] parts = raw.split(";");
+        for (String part : parts) {
+            if (part.isEmpty()) continue;
+            String[] pv = part.split(":");
+            if (pv.length != 2) continue;
 
-                String id = pv[1];
-                LeafType type = byId.get(id);
-                if (type == null) continue;
+            String[] coords = pv[0].split(",");
+            if (coords.length != 3) continue;
 
-                BlockKey pos = new BlockKey(x, y, z);
-                if ((pos.x() >> 4) != chunk.getX() || (pos.z() >> 4) != chunk.getZ()) {
-                    skipped++;
-                    continue;
-                }
+            int x, y, z;
+            try {
+                x = Integer.parseInt(coords[0]);
+                y = Integer.parseInt(coords[1]);
+                z = Integer.parseInt(coords[2]);
+            } catch (NumberFormatException ex) {
+                continue;
+            }
+
+            String id = pv[1];
+            LeafType type = cfg.byId.get(id);
+            if (type == null) continue;
+
+            if ((x >> 4) != chunk.getX() || (z >> 4) != chunk.getZ()) {
+                skipped++;
+                continue;
+            }
 
-                map.put(pos, new LeafEntry(type, true));
-                applyLeafState(chunk.getWorld().getBlockAt(pos.x(), pos.y(), pos.z()), type);
+            int local = LeafPos.local(x, y, z);
+            tracked.leaves.put(local, ChunkLeaves.code(type.distanceId(), true));
+            if (hasAirBelow(chunk, local)) {
+                tracked.emitters.put(local, type);
+            }
+            if (reskin) {
+                queueReskin(chunk.getWorld(), x, y, z);
             }
         }
 
         if (skipped > 0) {
             plugin.getLogger().warning("Ignoradas " + skipped + " hojas persistidas fuera del chunk " + chunk.getX() + "," + chunk.getZ());
         }
+    }
 
-        return map;
+    // ==================== REPINTADO ====================
+
+    /**
+     * Marca una posición para reaplicar el estado custom en un tick próximo.
+     * Otros plugins pueden llamarlo tras modificar bloques sin disparar eventos.
+     */
+    public void queueReskin(World world, int x, int y, int z) {
+        // En modo packets el mundo no lleva el estado visual: no hay nada que repintar
+        if (config.packetVisuals) return;
+        reskinQueue.add(new ReskinPos(world.getUID(), x, y, z));
     }
 
-    private Map<BlockKey, LeafEntry> extractPersistentLeaves(Map<BlockKey, LeafEntry> map) {
-        Map<BlockKey, LeafEntry> particleMap = new HashMap<>();
-        for (Map.Entry<BlockKey, LeafEntry> entry : map.entrySet()) {
-            if (entry.getValue().persistent()) {
-                particleMap.put(entry.getKey(), entry.getValue());
-            }
+    public void queueReskin(Block block) {
+        queueReskin(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * queueReskin para la física: si la posición ya está en cola no se reserva nada.
+     */
+    private void queuePhysicsReskin(World world, TrackedChunk tracked, int x, int y, int z) {
+        if (config.packetVisuals) return;
+        if (tracked == null) {
+            queueReskin(world, x, y, z);
+            return;
+        }
+
+        if (tracked.queuedReskins == null) {
+            tracked.queuedReskins = new IntIntMap(0);
+        }
+        if (tracked.queuedReskins.put(LeafPos.local(x, y, z), 1) == 0) {
+            reskinQueue.add(new ReskinPos(world.getUID(), x, y, z));
         }
-        return particleMap;
+    }
+
+    public int getReskinQueueSize() {
+        return reskinQueue.size();
     }
 
     /**
-     * Fallback manual refresher usado por comandos o depuración externa.
-     * Reaplica el estado custom a todas las hojas rastreadas en chunks cargados.
+     * Drena la cola de posiciones sucias, como mucho MAX_RESENDS_PER_TICK por tick
+     * y sin pasarse del deadline del planificador.
      */
-    public void processReskinQueue() {
-        for (Map.Entry<ChunkKey, Map<BlockKey, LeafEntry>> entry : leavesByChunk.entrySet()) {
-            ChunkKey chunkKey = entry.getKey();
-            World world = Bukkit.getWorld(chunkKey.worldId());
+    private void processReskinQueue(long deadline) {
+        if (reskinQueue.isEmpty()) return;
+
+        int budget = MAX_RESENDS_PER_TICK;
+        int visited = 0;
+        Iterator<ReskinPos> it = reskinQueue.iterator();
+        while (budget > 0 && it.hasNext()) {
+            // Por entradas recorridas, no por envíos: las descartadas también cuestan
+            if (visited > 0 && (visited % RESKIN_CHECK_INTERVAL) == 0 && System.nanoTime() >= deadline) {
+                return;
+            }
+            visited++;
+
+            ReskinPos pos = it.next();
+            it.remove();
+
+            World world = Bukkit.getWorld(pos.worldId());
             if (world == null) continue;
 
-            if (!world.isChunkLoaded(chunkKey.x(), chunkKey.z())) {
-                continue;
+            int chunkX = pos.x() >> 4;
+            int chunkZ = pos.z() >> 4;
+            if (!world.isChunkLoaded(chunkX, chunkZ)) continue;
+
+            TrackedChunk tracked = getTracked(world, chunkX, chunkZ);
+            if (tracked == null) continue;
+            if (tracked.queuedReskins != null) {
+                tracked.queuedReskins.remove(LeafPos.local(pos.x(), pos.y(), pos.z()));
             }
 
-            Chunk chunk = world.getChunkAt(chunkKey.x(), chunkKey.z());
-            Map<BlockKey, LeafEntry> blocks = entry.getValue();
-            for (Map.Entry<BlockKey, LeafEntry> blockEntry : blocks.entrySet()) {
-                BlockKey pos = blockEntry.getKey();
-                LeafEntry leafEntry = blockEntry.getValue();
-                applyLeafState(world.getBlockAt(pos.x(), pos.y(), pos.z()), leafEntry.type());
+            Block block = world.getBlockAt(pos.x(), pos.y(), pos.z());
+            LeafType type;
+            if (tracked.loadPending) {
+                type = lookupTracked(world, tracked, pos.x(), pos.y(), pos.z());
+            } else {
+                type = typeOf(tracked.leaves.get(LeafPos.local(pos.x(), pos.y(), pos.z())));
+                if (type == null && config.naturalStateless) {
+                    type = detectFromState(block);
+                }
             }
+            if (type == null) continue;
+
+            applyLeafState(block, type);
+            budget--;
+        }
+    }
+
+    /**
+     * Fallback manual refresher usado por comandos o depuración externa.
+     * Encola todas las hojas rastreadas en chunks cargados; se procesan con el
+     * mismo presupuesto por tick que el resto de repintados.
+     *
+     * @return cantidad de posiciones encoladas
+     */
+    public int queueFullRefresh() {
+        int sizeBefore = reskinQueue.size();
+        for (LongObjectMap<TrackedChunk> chunks : chunksByWorld.values()) {
+            chunks.forEach((key, tracked) -> {
+                World world = Bukkit.getWorld(tracked.worldId);
+                if (world == null || !world.isChunkLoaded(tracked.x, tracked.z)) return;
+
+                int baseX = tracked.x << 4;
+                int baseZ = tracked.z << 4;
+                tracked.leaves.forEach((local, code) -> reskinQueue.add(new ReskinPos(
+                        tracked.worldId,
+                        baseX + LeafPos.localX(local),
+                        LeafPos.y(local),
+                        baseZ + LeafPos.localZ(local)
+                )));
+                if (config.naturalStateless) {
+                    // Las hojas naturales no están en el mapa; al menos los emisores
+                    for (int i = 0; i < tracked.emitters.size(); i++) {
+                        int local = tracked.emitters.positionAt(i);
+                        reskinQueue.add(new ReskinPos(tracked.worldId,
+                                baseX + LeafPos.localX(local), LeafPos.y(local), baseZ + LeafPos.localZ(local)));
+                    }
+                }
+            });
         }
+        return reskinQueue.size() - sizeBefore;
     }
 
+    /**
+     * Envía el lote planificado en el tick anterior y publica la foto de este tick
+     * para el planificador (ver ParticlePlanner).
+     */
     private void spawnLeafParticles() {
-        if (particleLeavesByChunk.isEmpty()) {
+        long tick = ++particleTick;
+        if (tick % 20 == 0) {
+            particleThrottle.update();
+        }
+
+        ParticlePlanner.Batch ready = particlePlanner.pollReady();
+        if (ready != null) {
+            flushParticles(ready);
+        }
+
+        if (particlePlanner.isBusy() || chunksByWorld.isEmpty()) {
             return;
         }
 
@@ -775,126 +2523,388 @@ public class LeafManager implements Listener {
             return;
         }
 
-        int remaining = maxParticlesPerTick;
-        ThreadLocalRandom rnd = ThreadLocalRandom.current();
-
+        // Primera pasada: jugadores con emisores cerca, suma de multiplicadores de nivel y
+        // mayor emisión (nivel × ping)
+        particlePlayerScratch.clear();
+        double totalMultiplier = 0.0;
+        double maxEmission = 0.0;
         for (Player player : players) {
-            if (remaining <= 0) {
-                break;
-            }
             if (!player.isOnline() || player.isDead()) {
                 continue;
             }
 
+            double multiplier = getParticleLevel(player).multiplier();
+            if (multiplier <= 0.0) continue;
+
             Location playerLoc = player.getLocation();
             World world = playerLoc.getWorld();
             if (world == null) continue;
 
-            int baseChunkX = playerLoc.getBlockX() >> 4;
-            int baseChunkZ = playerLoc.getBlockZ() >> 4;
-
-            int perPlayer = Math.min(maxParticlesPerPlayer, remaining);
-            int attempts = perPlayer * PARTICLE_ATTEMPTS_MULTIPLIER;
-            Set<BlockKey> used = new HashSet<>(perPlayer * 2);
-            for (int attempt = 0; attempt < attempts; attempt++) {
-                int cx = baseChunkX + rnd.nextInt(-particleChunkRadius, particleChunkRadius + 1);
-                int cz = baseChunkZ + rnd.nextInt(-particleChunkRadius, particleChunkRadius + 1);
-                Map<BlockKey, LeafEntry> map = particleLeavesByChunk.get(new ChunkKey(world.getUID(), cx, cz));
-                if (map == null || map.isEmpty()) {
-                    continue;
-                }
+            LongObjectMap<TrackedChunk> chunks = chunksByWorld.get(world.getUID());
+            if (chunks == null || chunks.isEmpty()) continue;
 
-                Map.Entry<BlockKey, LeafEntry> selection = pickRandomLeaf(map, rnd);
-                if (selection == null) {
-                    continue;
-                }
+            PlayerParticleIndex index = particleIndexByPlayer.computeIfAbsent(player.getUniqueId(), id -> new PlayerParticleIndex());
+            refreshParticleIndex(index, chunks, world.getUID(),
+                    playerLoc.getBlockX() >> 4, playerLoc.getBlockZ() >> 4);
+            if (index.totalWeight == 0) continue;
 
-                LeafEntry entry = selection.getValue();
+            particlePlayerScratch.add(player);
+            totalMultiplier += multiplier;
+            maxEmission = Math.max(maxEmission, multiplier * particleThrottle.pingFactor(player.getPing()));
+        }
 
-                BlockKey pos = selection.getKey();
-                if (used.contains(pos)) {
-                    continue;
-                }
-                double dx = (pos.x() + 0.5) - playerLoc.getX();
-                double dy = (pos.y() + 0.5) - playerLoc.getY();
-                double dz = (pos.z() + 0.5) - playerLoc.getZ();
-                if ((dx * dx + dy * dy + dz * dz) > particlePlayerRadiusSquared) {
-                    continue;
-                }
+        // Segunda pasada: cada jugador recibe su parte de max-per-tick según su nivel; lo que
+        // no usan los jugadores con "off" (o sin hojas cerca) se reparte entre los demás.
+        // La carga del servidor escala la tasa; max-per-tick y el presupuesto quedan como topes
+        int maxPerTick = particleThrottle.scaled(maxParticlesPerTick);
+        List<ParticlePlanner.PlayerView> views = new ArrayList<>(particlePlayerScratch.size());
+        for (Player player : particlePlayerScratch) {
+            double multiplier = getParticleLevel(player).multiplier();
+            int share = (int) Math.ceil(maxPerTick * multiplier / totalMultiplier);
+            int budget = (int) Math.round(particleThrottle.scaled(maxParticlesPerPlayer) * multiplier);
+            int maxParticles = Math.max(1, Math.min(budget, share));
+            double emission = multiplier * particleThrottle.pingFactor(player.getPing());
 
-                Block block = world.getBlockAt(pos.x(), pos.y(), pos.z());
-                if (block.getType() != hostMaterial) {
-                    continue;
-                }
-                if (!hasAirBelow(block)) {
-                    continue;
-                }
+            Location playerLoc = player.getLocation();
+            views.add(new ParticlePlanner.PlayerView(player, playerLoc.getWorld(),
+                    playerLoc.getX(), playerLoc.getY(), playerLoc.getZ(),
+                    maxParticles, emission, particleIndexByPlayer.get(player.getUniqueId()).views));
+        }
+        particlePlayerScratch.clear();
 
-                if (!shouldSpawnParticle(entry.type(), rnd)) {
-                    continue;
-                }
+        if (views.isEmpty()) {
+            return;
+        }
 
-                spawnLeafParticle(player, entry.type(), pos, rnd);
-                used.add(pos);
-                remaining--;
-                perPlayer--;
-                if (remaining <= 0) {
-                    break;
-                }
-                if (perPlayer <= 0) {
-                    break;
+        particlePlanner.submit(views.toArray(new ParticlePlanner.PlayerView[0]), new ParticlePlanner.Settings(
+                maxPerTick, particlePlayerRadiusSquared, particleRatePerLeaf / 20.0 * particleThrottle.rateScale(),
+                maxEmission), tick);
+    }
+
+    /**
+     * Pone al día el vecindario del jugador. La lista de chunks solo se rehace al
+     * cambiar de chunk/mundo o si se cargó/descargó un chunk dentro del radio; cada
+     * tick solo se comparan las views de esos chunks y el array publicado se rehace
+     * solo si alguna cambió.
+     */
+    private void refreshParticleIndex(PlayerParticleIndex index, LongObjectMap<TrackedChunk> chunks,
+                                      UUID worldId, int chunkX, int chunkZ) {
+        boolean rebuildViews = false;
+        if (index.dirty || index.chunkX != chunkX || index.chunkZ != chunkZ || !worldId.equals(index.worldId)) {
+            collectParticleChunks(index, chunks, worldId, chunkX, chunkZ);
+            rebuildViews = true;
+        }
+
+        TrackedChunk[] tracked = index.chunks;
+        EmitterSet.View[] seen = index.seenViews;
+        for (int i = 0; i < tracked.length; i++) {
+            EmitterSet.View view = tracked[i].emitters.view();
+            if (seen[i] != view) {
+                seen[i] = view;
+                rebuildViews = true;
+            }
+        }
+
+        if (!rebuildViews) return;
+
+        particleChunkScratch.clear();
+        int totalWeight = 0;
+        for (int i = 0; i < tracked.length; i++) {
+            EmitterSet.View view = seen[i];
+            if (view.totalWeight() == 0) continue;
+
+            TrackedChunk chunk = tracked[i];
+            if (chunk.particleView == null || chunk.particleView.emitters() != view) {
+                chunk.particleView = new ParticlePlanner.ChunkView(chunk.worldId, chunk.x, chunk.z, view);
+            }
+            particleChunkScratch.add(chunk.particleView);
+            totalWeight += view.totalWeight();
+        }
+        index.views = particleChunkScratch.toArray(new ParticlePlanner.ChunkView[0]);
+        index.totalWeight = totalWeight;
+    }
+
+    /**
+     * Chunks rastreados dentro de particleChunkRadius alrededor de (chunkX, chunkZ).
+     */
+    private void collectParticleChunks(PlayerParticleIndex index, LongObjectMap<TrackedChunk> chunks,
+                                       UUID worldId, int chunkX, int chunkZ) {
+        List<TrackedChunk> found = new ArrayList<>();
+        for (int cx = chunkX - particleChunkRadius; cx <= chunkX + particleChunkRadius; cx++) {
+            for (int cz = chunkZ - particleChunkRadius; cz <= chunkZ + particleChunkRadius; cz++) {
+                TrackedChunk tracked = chunks.get(LeafPos.chunkKey(cx, cz));
+                if (tracked != null) {
+                    found.add(tracked);
                 }
             }
         }
+
+        index.worldId = worldId;
+        index.chunkX = chunkX;
+        index.chunkZ = chunkZ;
+        index.dirty = false;
+        index.chunks = found.toArray(new TrackedChunk[0]);
+        index.seenViews = new EmitterSet.View[index.chunks.length];
     }
 
-    private Map.Entry<BlockKey, LeafEntry> pickRandomLeaf(Map<BlockKey, LeafEntry> map, ThreadLocalRandom rnd) {
-        if (map.isEmpty()) return null;
-        int target = rnd.nextInt(map.size());
-        int index = 0;
-        for (Map.Entry<BlockKey, LeafEntry> entry : map.entrySet()) {
-            if (index++ == target) {
-                return entry;
+    private void invalidateParticleIndexes(UUID worldId, int chunkX, int chunkZ) {
+        for (PlayerParticleIndex index : particleIndexByPlayer.values()) {
+            if (!index.dirty && index.covers(worldId, chunkX, chunkZ, particleChunkRadius)) {
+                index.dirty = true;
             }
         }
-        return null;
     }
 
-    private void spawnLeafParticle(Player player, LeafType type, BlockKey pos, ThreadLocalRandom rnd) {
-        Color color = type.particleColor();
+    /**
+     * Envía un lote del planificador. Los emisores ya son hojas con aire debajo (índice
+     * mantenido por eventos), así que aquí no se lee el mundo. El planificador deja las
+     * partículas de cada jugador contiguas, así que se envían por tramos.
+     */
+    private void flushParticles(ParticlePlanner.Batch batch) {
+        if (particleSendScratch.length < batch.size()) {
+            particleSendScratch = new int[batch.size()];
+        }
 
-        double x = pos.x() + 0.2 + rnd.nextDouble() * 0.6;
-        double y = pos.y() - 0.2 + rnd.nextDouble() * 0.2;
-        double z = pos.z() + 0.2 + rnd.nextDouble() * 0.6;
+        int i = 0;
+        while (i < batch.size()) {
+            Player player = batch.player(i);
+            World world = batch.world(i);
+            boolean valid = player.isOnline() && player.getWorld() == world;
+
+            int count = 0;
+            for (; i < batch.size() && batch.player(i) == player; i++) {
+                if (valid) {
+                    particleSendScratch[count++] = i;
+                }
+            }
+
+            if (count > 0) {
+                sendParticles(player, batch, particleSendScratch, count);
+            }
+        }
+    }
 
-        double vx = (rnd.nextDouble() - 0.5) * PARTICLE_DRIFT;
-        double vz = (rnd.nextDouble() - 0.5) * PARTICLE_DRIFT;
-        double vy = PARTICLE_DOWNWARD_SPEED - rnd.nextDouble() * PARTICLE_FALL_SPEED;
+    private void sendParticles(Player player, ParticlePlanner.Batch batch, int[] indices, int count) {
+        if (packetParticles != null) {
+            try {
+                packetParticles.send(player, batch, indices, count);
+                return;
+            } catch (LinkageError | RuntimeException ex) {
+                plugin.getLogger().log(Level.WARNING, "Error enviando partículas con PacketEvents, se usa la API de Bukkit.", ex);
+                packetParticles = null;
+            }
+        }
 
-        player.spawnParticle(
-                Particle.TINTED_LEAVES,
-                x,
-                y,
-                z,
-                0,
-                vx,
-                vy,
-                vz,
-                1.0,
-                color
-        );
+        for (int n = 0; n < count; n++) {
+            int i = indices[n];
+            player.spawnParticle(
+                    Particle.TINTED_LEAVES,
+                    batch.x(i),
+                    batch.y(i),
+                    batch.z(i),
+                    0,
+                    batch.vx(i),
+                    batch.vy(i),
+                    batch.vz(i),
+                    1.0,
+                    batch.color(i)
+            );
+        }
     }
 
+    // ==================== EMISORES (AIRE DEBAJO) ====================
+
     private boolean hasAirBelow(Block block) {
         return block.getRelative(BlockFace.DOWN).getType().isAir();
     }
 
-    private boolean shouldSpawnParticle(LeafType type, ThreadLocalRandom rnd) {
-        int amount = type.particleAmount();
-        if (amount <= 0) {
-            return false;
+    private boolean hasAirBelow(Chunk chunk, int local) {
+        int y = LeafPos.y(local);
+        if (y <= chunk.getWorld().getMinHeight()) return true;
+        return chunk.getBlock(LeafPos.localX(local), y - 1, LeafPos.localZ(local)).getType().isAir();
+    }
+
+    /**
+     * Un bloque que no es aire ocupa (x,y,z): la hoja de encima deja de emitir.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onPlaceBelowLeaf(BlockPlaceEvent event) {
+        Block block = event.getBlockPlaced();
+        if (block.getType().isAir()) return;
+        updateEmitter(block.getWorld(), block.getX(), block.getY() + 1, block.getZ(), false);
+    }
+
+    /**
+     * El bloque roto queda como aire (salvo si tenía agua): la hoja de encima puede emitir.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onBreakBelowLeaf(BlockBreakEvent event) {
+        Block block = event.getBlock();
+        if (block.getBlockData() instanceof Waterlogged waterlogged && waterlogged.isWaterlogged()) return;
+        updateEmitter(block.getWorld(), block.getX(), block.getY() + 1, block.getZ(), true);
+    }
+
+    // ==================== BLOQUES QUITADOS SIN JUGADOR ====================
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onBurn(BlockBurnEvent event) {
+        onBlocksRemoved(List.of(event.getBlock()));
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        onBlocksRemoved(event.blockList());
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        onBlocksRemoved(event.blockList());
+    }
+
+    /**
+     * Nieve, hielo, fuego... al desaparecer pueden dejar aire bajo una hoja.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onFade(BlockFadeEvent event) {
+        onBlocksRemoved(List.of(event.getBlock()));
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onPistonExtend(BlockPistonExtendEvent event) {
+        onBlocksMoved(event.getBlock(), event.getBlocks(), event.getDirection());
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onPistonRetract(BlockPistonRetractEvent event) {
+        onBlocksMoved(event.getBlock(), event.getBlocks(), event.getDirection());
+    }
+
+    /**
+     * Los bloques se quitan después del evento: las hojas se desregistran ya y los
+     * emisores de encima se recalculan al tick siguiente, con el mundo ya cambiado.
+     */
+    private void onBlocksRemoved(List<Block> blocks) {
+        if (blocks.isEmpty()) return;
+
+        for (Block block : blocks) {
+            if (block.getType() != hostMaterial) continue;
+            markScanTouched(block);
+            unregisterLeafAt(block);
+        }
+
+        List<Block> changed = List.copyOf(blocks);
+        Bukkit.getScheduler().runTask(plugin, () -> refreshEmittersAbove(changed));
+    }
+
+    private record MovedLeaf(Block to, LeafType type, boolean persistent) {}
+
+    /**
+     * Un pistón mueve los bloques una posición en la dirección del evento (también al
+     * retraer). Las hojas se quitan del origen y se registran en el destino al tick
+     * siguiente, con el mismo tipo y persistencia; luego se recalculan los emisores.
+     */
+    private void onBlocksMoved(Block piston, List<Block> blocks, BlockFace direction) {
+        List<Block> changed = new ArrayList<>(blocks.size() * 2 + 2);
+        List<MovedLeaf> moved = new ArrayList<>();
+
+        for (Block block : blocks) {
+            Block to = block.getRelative(direction);
+            changed.add(block);
+            changed.add(to);
+            if (block.getType() != hostMaterial) continue;
+
+            TrackedChunk tracked = getTracked(block.getWorld(), block.getX() >> 4, block.getZ() >> 4);
+            LeafType type = tracked == null
+                    ? detectFromState(block)
+                    : lookupTracked(block.getWorld(), tracked, block.getX(), block.getY(), block.getZ());
+            if (type != null) {
+                moved.add(new MovedLeaf(to, type, isPersistentAt(tracked, block)));
+            }
+            markScanTouched(block);
+            unregisterLeafAt(block);
+        }
+        // Cabeza del pistón: ocupa o deja libre la posición contigua
+        changed.add(piston.getRelative(direction));
+        changed.add(piston.getRelative(direction.getOppositeFace()));
+
+        Bukkit.getScheduler().runTask(plugin, () -> {
+            for (MovedLeaf leaf : moved) {
+                Block to = leaf.to();
+                if (to.getType() != hostMaterial) continue;
+                markScanTouched(to);
+                if (leaf.persistent()) {
+                    registerLeafAt(to, leaf.type());
+                } else if (!config.naturalStateless) {
+                    setLeafAt(to, leaf.type(), false, false);
+                }
+                updateEmitter(to.getWorld(), to.getX(), to.getY(), to.getZ(), hasAirBelow(to));
+            }
+            refreshEmittersAbove(changed);
+        });
+    }
+
+    private boolean isPersistentAt(TrackedChunk tracked, Block block) {
+        if (tracked == null) return false;
+        int local = LeafPos.local(block.getX(), block.getY(), block.getZ());
+        if (tracked.loadPending) {
+            int edit = tracked.pendingEdits == null ? -1 : tracked.pendingEdits.get(local);
+            return edit >= 0 && ChunkLeaves.isPersistent(edit);
+        }
+        return ChunkLeaves.isPersistent(tracked.leaves.get(local));
+    }
+
+    private void refreshEmittersAbove(List<Block> blocks) {
+        for (Block block : blocks) {
+            World world = block.getWorld();
+            // Chunk descargado entre medias: no se rastrea y no hay nada que actualizar
+            if (getTracked(world, block.getX() >> 4, block.getZ() >> 4) == null) continue;
+            updateEmitter(world, block.getX(), block.getY() + 1, block.getZ(), block.getType().isAir());
+        }
+    }
+
+    /**
+     * Recalcula si la hoja en (x,y,z) es emisora tras un cambio en el bloque de debajo.
+     * Sin aire debajo solo se quita (no lee el mundo); con aire se mira el tipo:
+     * hojas colocadas por el mapa, naturales por su distance en vivo (solo si coincide).
+     */
+    private void updateEmitter(World world, int x, int y, int z, boolean airBelow) {
+        TrackedChunk tracked = getTracked(world, x >> 4, z >> 4);
+        if (tracked == null) return;
+        if (tracked.loadPending) {
+            // Los emisores se calculan al completar la carga (con escaneo: el marcador ya no vale)
+            tracked.editedWhilePending = true;
+            return;
+        }
+
+        int local = LeafPos.local(x, y, z);
+        int code = tracked.leaves.get(local);
+
+        if (!airBelow) {
+            if (tracked.emitters.remove(local)) {
+                if (!ChunkLeaves.isPersistent(code)) {
+                    tracked.naturalDirty = true;
+                }
+                restageChunk(world.getChunkAt(x >> 4, z >> 4));
+            }
+            return;
+        }
+        if (tracked.emitters.contains(local)) return;
+
+        LeafType type;
+        if (ChunkLeaves.isPersistent(code)) {
+            type = typeOf(code);
+        } else {
+            Block block = world.getBlockAt(x, y, z);
+            if (block.getType() != hostMaterial || !(block.getBlockData() instanceof Leaves leaves)) return;
+            type = config.typesByDistance[leaves.getDistance() & 7];
+            if (type != null) {
+                tracked.naturalDirty = true;
+            }
+        }
+
+        if (type != null) {
+            tracked.emitters.put(local, type);
+            restageChunk(world.getChunkAt(x >> 4, z >> 4));
         }
-        int max = Math.max(1, maxParticleAmount);
-        return rnd.nextInt(max) < amount;
     }
 }
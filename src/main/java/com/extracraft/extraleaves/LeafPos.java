@@ -0,0 +1,33 @@
+package com.extracraft.extraleaves;
+
+/**
+ * Empaquetado de coordenadas para los índices primitivos.
+ *
+ *  - chunk: long con x en los 32 bits bajos y z en los 32 altos
+ *  - bloque dentro del chunk: int (y << 8) | (z << 4) | x, con y absoluta (con signo)
+ */
+final class LeafPos {
+
+    private LeafPos() {
+    }
+
+    static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkZ << 32) | (chunkX & 0xFFFFFFFFL);
+    }
+
+    static int local(int x, int y, int z) {
+        return (y << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    static int localX(int local) {
+        return local & 15;
+    }
+
+    static int localZ(int local) {
+        return (local >> 4) & 15;
+    }
+
+    static int y(int local) {
+        return local >> 8;
+    }
+}
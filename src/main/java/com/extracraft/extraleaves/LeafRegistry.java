@@ -0,0 +1,83 @@
+package com.extracraft.extraleaves;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Tipos de hoja cargados de config.yml, como instantánea inmutable.
+ *
+ *  - Un reload crea otra instancia y la publica de golpe (LeafManager#getRegistry),
+ *    así que se puede leer desde cualquier hilo sin ver estados a medias.
+ *  - Las consultas no reservan memoria: array por distance-id, mapa por id y lista
+ *    ordenada (orden de config.yml) creados una sola vez.
+ */
+public final class LeafRegistry {
+
+    static final LeafRegistry EMPTY = new LeafRegistry(new LinkedHashMap<>(), new LeafType[8]);
+
+    private final Map<String, LeafType> byId;
+    // Índice = distance (0..7); los huecos son null
+    private final LeafType[] byDistance;
+    private final List<LeafType> all;
+    // Primera hoja de la config: tipo de las azaleas host con un distance sin configurar
+    private final LeafType fallback;
+
+    LeafRegistry(LinkedHashMap<String, LeafType> byId, LeafType[] byDistance) {
+        this.byId = Collections.unmodifiableMap(new LinkedHashMap<>(byId));
+        this.byDistance = byDistance.clone();
+        this.all = List.copyOf(byId.values());
+        this.fallback = all.isEmpty() ? null : all.get(0);
+    }
+
+    /**
+     * Tipo por id (sin distinguir mayúsculas) o null.
+     */
+    public LeafType find(String id) {
+        if (id == null) return null;
+        return byId.get(id.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Tipo asignado a un distance-id (1..7) o null.
+     */
+    public LeafType byDistance(int distanceId) {
+        return distanceId < 0 || distanceId >= byDistance.length ? null : byDistance[distanceId];
+    }
+
+    /**
+     * Todos los tipos en el orden de config.yml (lista inmutable, siempre la misma instancia).
+     */
+    public List<LeafType> all() {
+        return all;
+    }
+
+    public LeafType fallback() {
+        return fallback;
+    }
+
+    public int size() {
+        return all.size();
+    }
+
+    public boolean isEmpty() {
+        return all.isEmpty();
+    }
+
+    /**
+     * Mapa id -> tipo (inmutable) para el codec de chunks.
+     */
+    Map<String, LeafType> byIdMap() {
+        return byId;
+    }
+
+    /**
+     * Copia de la tabla por distance-id (índice 0..7) para los workers de escaneo y el codec.
+     * Es una copia: modificarla no afecta al registro publicado.
+     */
+    LeafType[] distanceTable() {
+        return byDistance.clone();
+    }
+}
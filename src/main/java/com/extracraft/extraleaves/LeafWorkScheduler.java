@@ -0,0 +1,128 @@
+package com.extracraft.extraleaves;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Planificador cooperativo del trabajo de fondo en el hilo principal.
+ *
+ *  - Cada tick hay un presupuesto total (scheduler.tick-budget-ms en config.yml).
+ *  - Las tareas corren por prioridad (menor = antes) con el deadline del tick; lo que
+ *    no terminan lo continúan en el siguiente.
+ *  - Una tarea que se queda sin turno pasa delante en el siguiente tick, así las de
+ *    prioridad baja no se quedan esperando para siempre.
+ *
+ * Solo hilo principal.
+ */
+final class LeafWorkScheduler {
+
+    /**
+     * Trabajo troceable. Debe mirar el deadline (System.nanoTime()) y parar al pasarlo.
+     */
+    interface Task {
+        void run(long deadline);
+    }
+
+    /**
+     * Tiempo usado por una tarea. skippedTicks = ticks en los que no le llegó presupuesto.
+     */
+    record TaskStats(String name, int priority, long runs, long lastNanos, long maxNanos,
+                     long totalNanos, long skippedTicks) {}
+
+    private static final class Entry {
+        final String name;
+        final int priority;
+        final Task task;
+        boolean starved;
+        long lastTick;
+        long runs;
+        long lastNanos;
+        long maxNanos;
+        long totalNanos;
+        long skippedTicks;
+
+        Entry(String name, int priority, Task task) {
+            this.name = name;
+            this.priority = priority;
+            this.task = task;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private long budgetNanos;
+    private long tickCount;
+    private long lastTickNanos;
+    private long maxTickNanos;
+
+    LeafWorkScheduler(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+
+    void setBudgetNanos(long budgetNanos) {
+        this.budgetNanos = Math.max(100_000L, budgetNanos);
+    }
+
+    long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    void register(String name, int priority, Task task) {
+        Entry entry = new Entry(name, priority, task);
+        int i = 0;
+        while (i < entries.size() && entries.get(i).priority <= priority) i++;
+        entries.add(i, entry);
+    }
+
+    /**
+     * Un tick: primero las tareas que se quedaron sin turno, luego el resto, siempre por prioridad.
+     */
+    void tick() {
+        long start = System.nanoTime();
+        long deadline = start + budgetNanos;
+
+        tickCount++;
+        for (int pass = 0; pass < 2; pass++) {
+            boolean starvedPass = pass == 0;
+            for (Entry entry : entries) {
+                if (entry.starved != starvedPass || entry.lastTick == tickCount) continue;
+                entry.lastTick = tickCount;
+
+                long now = System.nanoTime();
+                if (now >= deadline) {
+                    entry.starved = true;
+                    entry.skippedTicks++;
+                    continue;
+                }
+
+                entry.starved = false;
+                entry.task.run(deadline);
+
+                long elapsed = System.nanoTime() - now;
+                entry.runs++;
+                entry.lastNanos = elapsed;
+                entry.maxNanos = Math.max(entry.maxNanos, elapsed);
+                entry.totalNanos += elapsed;
+            }
+        }
+
+        lastTickNanos = System.nanoTime() - start;
+        maxTickNanos = Math.max(maxTickNanos, lastTickNanos);
+    }
+
+    long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    long getMaxTickNanos() {
+        return maxTickNanos;
+    }
+
+    List<TaskStats> getStats() {
+        List<TaskStats> stats = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            stats.add(new TaskStats(entry.name, entry.priority, entry.runs, entry.lastNanos,
+                    entry.maxNanos, entry.totalNanos, entry.skippedTicks));
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,67 @@
+package com.extracraft.extraleaves;
+
+import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.protocol.particle.Particle;
+import com.github.retrooper.packetevents.protocol.particle.data.ParticleColorData;
+import com.github.retrooper.packetevents.protocol.particle.type.ParticleTypes;
+import com.github.retrooper.packetevents.protocol.player.User;
+import com.github.retrooper.packetevents.util.Vector3d;
+import com.github.retrooper.packetevents.util.Vector3f;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerBundle;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerParticle;
+import org.bukkit.Color;
+import org.bukkit.entity.Player;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Envío de partículas TINTED_LEAVES construyendo los paquetes con PacketEvents.
+ *
+ *  - Las partículas de un jugador en el tick van dentro de un bundle (delimitador,
+ *    partículas, delimitador) y se vacían a la red con un solo flush.
+ *  - La partícula con su color se cachea por color (hay pocos tipos de hoja).
+ */
+final class PacketParticleSender {
+
+    private final Map<Integer, Particle<ParticleColorData>> particlesByColor = new HashMap<>();
+
+    /**
+     * Envía las partículas indices[0..count) del lote al jugador. Hilo principal.
+     */
+    void send(Player player, ParticlePlanner.Batch batch, int[] indices, int count) {
+        if (count <= 0) return;
+
+        User user = PacketEvents.getAPI().getPlayerManager().getUser(player);
+        if (user == null) return;
+
+        boolean bundle = count > 1;
+        if (bundle) {
+            user.writePacket(new WrapperPlayServerBundle());
+        }
+
+        for (int n = 0; n < count; n++) {
+            int i = indices[n];
+            // count 0: offset = dirección del movimiento y maxSpeed = multiplicador (como spawnParticle con extra 1.0)
+            user.writePacket(new WrapperPlayServerParticle(
+                    particle(batch.color(i)),
+                    false,
+                    new Vector3d(batch.x(i), batch.y(i), batch.z(i)),
+                    new Vector3f((float) batch.vx(i), (float) batch.vy(i), (float) batch.vz(i)),
+                    1.0f,
+                    0
+            ));
+        }
+
+        if (bundle) {
+            user.writePacket(new WrapperPlayServerBundle());
+        }
+        user.flushPackets();
+    }
+
+    private Particle<ParticleColorData> particle(Color color) {
+        int argb = 0xFF000000 | color.asRGB();
+        return particlesByColor.computeIfAbsent(argb,
+                key -> new Particle<>(ParticleTypes.TINTED_LEAVES, new ParticleColorData(key)));
+    }
+}
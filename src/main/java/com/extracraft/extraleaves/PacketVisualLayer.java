@@ -0,0 +1,203 @@
+package com.extracraft.extraleaves;
+
+import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.event.PacketListenerAbstract;
+import com.github.retrooper.packetevents.event.PacketListenerPriority;
+import com.github.retrooper.packetevents.event.PacketSendEvent;
+import com.github.retrooper.packetevents.protocol.packettype.PacketType;
+import com.github.retrooper.packetevents.protocol.packettype.PacketTypeCommon;
+import com.github.retrooper.packetevents.protocol.world.chunk.BaseChunk;
+import com.github.retrooper.packetevents.protocol.world.chunk.impl.v_1_18.Chunk_v1_18;
+import com.github.retrooper.packetevents.protocol.world.chunk.palette.DataPalette;
+import com.github.retrooper.packetevents.protocol.world.chunk.palette.Palette;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerBlockChange;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerChunkData;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerMultiBlockChange;
+import io.github.retrooper.packetevents.util.SpigotConversionUtil;
+import org.bukkit.Material;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.type.Leaves;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Capa visual a nivel de paquete (visuals.mode: packets).
+ *
+ * Los bloques del servidor no se reescriben: en los paquetes de chunk, block change
+ * y multi block change cada estado del bloque host se cambia por el estado visual
+ * del tipo de hoja de su distance-id (el mismo criterio que detectFromState),
+ * conservando waterlogged.
+ *
+ *  - La tabla de reemplazo es inmutable y se publica con un campo volatile, así que
+ *    los hilos de Netty la leen sin tocar el índice del hilo principal.
+ *  - Los ids globales se calculan con la versión del servidor.
+ *  - En los paquetes de chunk solo se recorren las secciones cuya paleta contiene
+ *    algún estado a reemplazar (como ChunkScanner#mayContainHost).
+ */
+final class PacketVisualLayer extends PacketListenerAbstract {
+
+    // ids globales [base, base + targets.length); targets[i] = id visual o -1 si no se toca
+    private record Remap(int base, int[] targets) {
+        int apply(int id) {
+            int index = id - base;
+            if (index < 0 || index >= targets.length) return -1;
+            return targets[index];
+        }
+    }
+
+    // Paletas más grandes (la global) no se miran entrada a entrada
+    private static final int MAX_PALETTE_CHECK = 256;
+
+    private final List<BlockData> hostStates;
+    private volatile Remap remap;
+    private boolean registered;
+
+    PacketVisualLayer(Material hostMaterial) {
+        super(PacketListenerPriority.HIGH);
+        this.hostStates = ChunkScanner.createHostStates(hostMaterial);
+    }
+
+    /**
+     * Recalcula la tabla a partir de la config (índice = distance-id). Hilo principal.
+     */
+    void update(LeafType[] typesByDistance, LeafType fallback) {
+        int[] ids = new int[hostStates.size()];
+        int[] visuals = new int[ids.length];
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+
+        for (int i = 0; i < ids.length; i++) {
+            BlockData state = hostStates.get(i);
+            int distance = ((Leaves) state).getDistance();
+            LeafType type = typesByDistance[distance] != null ? typesByDistance[distance] : fallback;
+
+            ids[i] = globalId(state);
+            visuals[i] = type == null ? -1 : globalId(visualFor(type, ((Leaves) state).isWaterlogged()));
+            min = Math.min(min, ids[i]);
+            max = Math.max(max, ids[i]);
+        }
+
+        if (ids.length == 0 || fallback == null) {
+            remap = null;
+            return;
+        }
+
+        int[] targets = new int[max - min + 1];
+        Arrays.fill(targets, -1);
+        for (int i = 0; i < ids.length; i++) {
+            if (visuals[i] != ids[i]) {
+                targets[ids[i] - min] = visuals[i];
+            }
+        }
+        remap = new Remap(min, targets);
+    }
+
+    void register() {
+        if (registered) return;
+        PacketEvents.getAPI().getEventManager().registerListener(this);
+        registered = true;
+    }
+
+    void unregister() {
+        if (!registered) return;
+        PacketEvents.getAPI().getEventManager().unregisterListener(this);
+        registered = false;
+    }
+
+    /**
+     * Estado visual del tipo con el waterlogged del bloque real (el agua también se ve en el cliente).
+     */
+    private static BlockData visualFor(LeafType type, boolean waterlogged) {
+        BlockData visual = type.visualData().clone();
+        if (visual instanceof Leaves leaves) {
+            leaves.setWaterlogged(waterlogged);
+        }
+        return visual;
+    }
+
+    private static int globalId(BlockData data) {
+        return SpigotConversionUtil.fromBukkitBlockData(data).getGlobalId();
+    }
+
+    // ==================== PAQUETES (hilos de Netty) ====================
+
+    @Override
+    public void onPacketSend(PacketSendEvent event) {
+        Remap current = remap;
+        if (current == null) return;
+
+        PacketTypeCommon type = event.getPacketType();
+        if (type == PacketType.Play.Server.CHUNK_DATA) {
+            rewriteChunk(event, current);
+        } else if (type == PacketType.Play.Server.BLOCK_CHANGE) {
+            WrapperPlayServerBlockChange packet = new WrapperPlayServerBlockChange(event);
+            int visual = current.apply(packet.getBlockId());
+            if (visual >= 0) {
+                packet.setBlockID(visual);
+                event.markForReEncode(true);
+            }
+        } else if (type == PacketType.Play.Server.MULTI_BLOCK_CHANGE) {
+            WrapperPlayServerMultiBlockChange packet = new WrapperPlayServerMultiBlockChange(event);
+            boolean changed = false;
+            for (WrapperPlayServerMultiBlockChange.EncodedBlock block : packet.getBlocks()) {
+                int visual = current.apply(block.getBlockId());
+                if (visual >= 0) {
+                    block.setBlockId(visual);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                event.markForReEncode(true);
+            }
+        }
+    }
+
+    private void rewriteChunk(PacketSendEvent event, Remap current) {
+        WrapperPlayServerChunkData packet = new WrapperPlayServerChunkData(event);
+        BaseChunk[] sections = packet.getColumn().getChunks();
+
+        boolean changed = false;
+        for (BaseChunk section : sections) {
+            if (section == null || section.isEmpty() || !mayContainRemapped(section, current)) continue;
+
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        int visual = current.apply(section.getBlockId(x, y, z));
+                        if (visual >= 0) {
+                            section.set(x, y, z, visual);
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (changed) {
+            event.markForReEncode(true);
+        }
+    }
+
+    /**
+     * Comprobación barata por paleta: false si ningún estado de la sección se reemplaza.
+     * Con paleta global (o un formato desconocido) no se puede saber y se recorre entera.
+     */
+    private static boolean mayContainRemapped(BaseChunk section, Remap current) {
+        if (!(section instanceof Chunk_v1_18 modern)) return true;
+
+        DataPalette data = modern.getChunkData();
+        Palette palette = data == null ? null : data.palette;
+        if (palette == null) return true;
+
+        int size = palette.size();
+        if (size > MAX_PALETTE_CHECK) return true;
+
+        for (int i = 0; i < size; i++) {
+            if (current.apply(palette.idToState(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
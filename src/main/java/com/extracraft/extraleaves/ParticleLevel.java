@@ -0,0 +1,41 @@
+package com.extracraft.extraleaves;
+
+import java.util.Locale;
+
+/**
+ * Nivel de partículas elegido por un jugador (/extraleaves particles &lt;nivel&gt;).
+ * multiplier escala las hojas que le emiten partículas, su presupuesto y su parte de max-per-tick.
+ */
+public enum ParticleLevel {
+    OFF(0.0),
+    LOW(0.5),
+    NORMAL(1.0),
+    HIGH(2.0);
+
+    private final double multiplier;
+
+    ParticleLevel(double multiplier) {
+        this.multiplier = multiplier;
+    }
+
+    public double multiplier() {
+        return multiplier;
+    }
+
+    public String id() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Nivel por su id (sin distinguir mayúsculas) o null si no existe.
+     */
+    public static ParticleLevel fromId(String id) {
+        if (id == null) return null;
+        for (ParticleLevel level : values()) {
+            if (level.id().equalsIgnoreCase(id)) {
+                return level;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,391 @@
+package com.extracraft.extraleaves;
+
+import org.bukkit.Color;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Planificador de partículas fuera del hilo principal.
+ *
+ *  - Hilo principal: publica una foto inmutable (jugadores + emisores cercanos) y
+ *    envía el lote ya calculado.
+ *  - Worker: elige hojas emisoras, posiciones y velocidades.
+ * El lote planificado en un tick se envía en el siguiente. Mientras el worker está
+ * ocupado no se publica otra foto (nunca se acumula trabajo).
+ *
+ * Emisión por temporizadores de Poisson: cada chunk cercano a algún jugador tiene su
+ * próxima emisión sorteada con una exponencial de tasa (suma de particleAmount de sus
+ * emisores) × rate. Los temporizadores van en una cola ordenada por tiempo, así que el
+ * trabajo por tick es proporcional a las partículas emitidas, no a intentos fallidos.
+ * Cada emisión se envía a los jugadores cercanos a la hoja (respetando los límites); el
+ * nivel de cada jugador se aplica a la tasa: los temporizadores corren a la del jugador con
+ * más emisión y cada uno acepta cada emisión con probabilidad emission / maxEmission.
+ */
+final class ParticlePlanner {
+
+    // Emisiones con más retraso que esto (worker ocupado, server lento) se descartan
+    private static final double MAX_LATE_TICKS = 20.0;
+    private static final double FALL_SPEED = 0.02;
+    private static final double DRIFT = 0.02;
+    private static final double DOWNWARD_SPEED = -0.04;
+
+    /**
+     * ratePerWeight = partículas esperadas por tick para una hoja con particle-amount 1.
+     * maxEmission = mayor emission de los jugadores de la foto (escala la tasa de los temporizadores).
+     */
+    record Settings(int maxPerTick, double radiusSquared, double ratePerWeight, double maxEmission) {
+    }
+
+    /**
+     * Emisores de un chunk. Se reutiliza entre ticks mientras la view no cambie.
+     */
+    record ChunkView(UUID worldId, int chunkX, int chunkZ, EmitterSet.View emitters) {
+    }
+
+    /**
+     * Jugador en el momento de la foto. player y world solo se usan en el hilo principal.
+     * maxParticles = presupuesto del jugador en este tick (tope, ya ajustado por carga y nivel).
+     * emission = parte de la tasa base que recibe (nivel × ping; HIGH &gt; 1).
+     */
+    record PlayerView(Player player, World world, double x, double y, double z, int maxParticles, double emission,
+                      ChunkView[] nearby) {
+    }
+
+    /**
+     * Partículas listas para enviar: posición, velocidad y color.
+     */
+    static final class Batch {
+        private Player[] players;
+        private World[] worlds;
+        private double[] motion;
+        private Color[] colors;
+        private int size;
+
+        Batch(int capacity) {
+            int initial = Math.max(1, capacity);
+            players = new Player[initial];
+            worlds = new World[initial];
+            motion = new double[initial * 6];
+            colors = new Color[initial];
+        }
+
+        private void add(PlayerView view, LeafType type, int blockX, int blockY, int blockZ, ThreadLocalRandom rnd) {
+            if (size == players.length) {
+                int grown = size << 1;
+                players = Arrays.copyOf(players, grown);
+                worlds = Arrays.copyOf(worlds, grown);
+                motion = Arrays.copyOf(motion, grown * 6);
+                colors = Arrays.copyOf(colors, grown);
+            }
+
+            players[size] = view.player();
+            worlds[size] = view.world();
+            colors[size] = type.particleColor();
+
+            int m = size * 6;
+            motion[m] = blockX + 0.2 + rnd.nextDouble() * 0.6;
+            motion[m + 1] = blockY - 0.2 + rnd.nextDouble() * 0.2;
+            motion[m + 2] = blockZ + 0.2 + rnd.nextDouble() * 0.6;
+            motion[m + 3] = (rnd.nextDouble() - 0.5) * DRIFT;
+            motion[m + 4] = DOWNWARD_SPEED - rnd.nextDouble() * FALL_SPEED;
+            motion[m + 5] = (rnd.nextDouble() - 0.5) * DRIFT;
+
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        Player player(int i) {
+            return players[i];
+        }
+
+        World world(int i) {
+            return worlds[i];
+        }
+
+        double x(int i) {
+            return motion[i * 6];
+        }
+
+        double y(int i) {
+            return motion[i * 6 + 1];
+        }
+
+        double z(int i) {
+            return motion[i * 6 + 2];
+        }
+
+        double vx(int i) {
+            return motion[i * 6 + 3];
+        }
+
+        double vy(int i) {
+            return motion[i * 6 + 4];
+        }
+
+        double vz(int i) {
+            return motion[i * 6 + 5];
+        }
+
+        Color color(int i) {
+            return colors[i];
+        }
+    }
+
+    // Temporizador de emisión de un chunk (solo lo toca el worker)
+    private static final class ChunkTimer {
+        final UUID worldId;
+        final long key;
+        double nextTick;
+        // Tasa con la que se sorteó nextTick (emisiones por tick)
+        double rate;
+
+        ChunkTimer(UUID worldId, long key) {
+            this.worldId = worldId;
+            this.key = key;
+        }
+    }
+
+    // Chunk cercano a jugadores en la foto actual y los jugadores que lo tienen en rango
+    private static final class ActiveChunk {
+        final ChunkView view;
+        int[] players = new int[4];
+        int playerCount;
+
+        ActiveChunk(ChunkView view) {
+            this.view = view;
+        }
+
+        void addPlayer(int player) {
+            if (playerCount == players.length) {
+                players = Arrays.copyOf(players, playerCount << 1);
+            }
+            players[playerCount++] = player;
+        }
+    }
+
+    private final Logger logger;
+    private final ExecutorService worker;
+    private CompletableFuture<Batch> pending;
+
+    // Estado del worker entre ticks
+    private final Map<UUID, LongObjectMap<ChunkTimer>> timers = new HashMap<>();
+    private final PriorityQueue<ChunkTimer> queue = new PriorityQueue<>((a, b) -> Double.compare(a.nextTick, b.nextTick));
+
+    ParticlePlanner(Logger logger) {
+        this.logger = logger;
+        this.worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ExtraLeaves-Particles");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    boolean isBusy() {
+        return pending != null && !pending.isDone();
+    }
+
+    /**
+     * Publica la foto del tick. Solo desde el hilo principal y con el worker libre.
+     */
+    void submit(PlayerView[] players, Settings settings, long tick) {
+        pending = CompletableFuture.supplyAsync(() -> plan(players, settings, tick), worker);
+    }
+
+    /**
+     * Lote terminado, o null si no hay ninguno listo. Solo desde el hilo principal.
+     */
+    Batch pollReady() {
+        if (pending == null || !pending.isDone()) {
+            return null;
+        }
+
+        CompletableFuture<Batch> done = pending;
+        pending = null;
+        try {
+            return done.join();
+        } catch (RuntimeException ex) {
+            logger.log(Level.WARNING, "Error planificando partículas", ex);
+            return null;
+        }
+    }
+
+    void shutdown() {
+        pending = null;
+        worker.shutdownNow();
+    }
+
+    /**
+     * Olvida los temporizadores (p. ej. tras un reload). Se ejecuta en el worker.
+     */
+    void reset() {
+        worker.execute(() -> {
+            timers.clear();
+            queue.clear();
+        });
+    }
+
+    // ==================== WORKER ====================
+
+    private Batch plan(PlayerView[] players, Settings settings, long tick) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        Map<UUID, LongObjectMap<ActiveChunk>> active = collectActive(players, settings, tick, rnd);
+
+        // Emisiones del tick: jugador + hoja; luego se agrupan por jugador
+        int capacity = settings.maxPerTick();
+        int[] emitPlayer = new int[capacity];
+        int[] emitBlock = new int[capacity * 3];
+        LeafType[] emitType = new LeafType[capacity];
+        int[] perPlayer = new int[players.length];
+        int emitted = 0;
+
+        ChunkTimer timer;
+        while ((timer = queue.peek()) != null && timer.nextTick <= tick) {
+            queue.poll();
+
+            LongObjectMap<ActiveChunk> worldActive = active.get(timer.worldId);
+            ActiveChunk chunk = worldActive == null ? null : worldActive.get(timer.key);
+            if (chunk == null) {
+                // Ya no hay jugadores cerca: el temporizador se descarta
+                LongObjectMap<ChunkTimer> worldTimers = timers.get(timer.worldId);
+                if (worldTimers != null) {
+                    worldTimers.remove(timer.key);
+                }
+                continue;
+            }
+
+            if (tick - timer.nextTick <= MAX_LATE_TICKS && emitted < capacity) {
+                EmitterSet.View emitters = chunk.view.emitters();
+                int weight = rnd.nextInt(emitters.totalWeight());
+                int local = emitters.positions()[emitters.indexForWeight(weight)];
+                LeafType type = emitters.typeForWeight(weight);
+
+                int x = (chunk.view.chunkX() << 4) + LeafPos.localX(local);
+                int y = LeafPos.y(local);
+                int z = (chunk.view.chunkZ() << 4) + LeafPos.localZ(local);
+
+                for (int n = 0; n < chunk.playerCount && emitted < capacity; n++) {
+                    int p = chunk.players[n];
+                    PlayerView player = players[p];
+                    if (perPlayer[p] >= player.maxParticles()) continue;
+                    if (player.emission() < settings.maxEmission()
+                            && rnd.nextDouble() * settings.maxEmission() >= player.emission()) continue;
+
+                    double dx = (x + 0.5) - player.x();
+                    double dy = (y + 0.5) - player.y();
+                    double dz = (z + 0.5) - player.z();
+                    if ((dx * dx + dy * dy + dz * dz) > settings.radiusSquared()) continue;
+
+                    emitPlayer[emitted] = p;
+                    emitBlock[emitted * 3] = x;
+                    emitBlock[emitted * 3 + 1] = y;
+                    emitBlock[emitted * 3 + 2] = z;
+                    emitType[emitted] = type;
+                    perPlayer[p]++;
+                    emitted++;
+                }
+            }
+
+            // Los retrasados (o sin presupuesto) siguen desde ahora, sin ráfagas de recuperación
+            double from = emitted >= capacity ? tick : Math.max(timer.nextTick, tick - MAX_LATE_TICKS);
+            timer.rate = rate(chunk.view.emitters(), settings);
+            timer.nextTick = from + nextDelay(timer.rate, rnd);
+            queue.add(timer);
+        }
+
+        // Agrupar por jugador (el envío manda un bundle por tramo contiguo)
+        int[] starts = new int[players.length + 1];
+        for (int i = 0; i < emitted; i++) {
+            starts[emitPlayer[i] + 1]++;
+        }
+        for (int p = 0; p < players.length; p++) {
+            starts[p + 1] += starts[p];
+        }
+        int[] order = new int[emitted];
+        for (int i = 0; i < emitted; i++) {
+            order[starts[emitPlayer[i]]++] = i;
+        }
+
+        Batch batch = new Batch(emitted);
+        for (int n = 0; n < emitted; n++) {
+            int i = order[n];
+            batch.add(players[emitPlayer[i]], emitType[i], emitBlock[i * 3], emitBlock[i * 3 + 1], emitBlock[i * 3 + 2], rnd);
+        }
+        return batch;
+    }
+
+    /**
+     * Chunks cercanos a algún jugador en esta foto. Los que aún no tienen temporizador
+     * reciben uno con su primera emisión sorteada desde ahora. Si la tasa del chunk cambió
+     * (emisores, carga o niveles) se vuelve a sortear desde ahora: la exponencial no tiene
+     * memoria, así que el cambio se aplica al momento sin sesgar la emisión.
+     */
+    private Map<UUID, LongObjectMap<ActiveChunk>> collectActive(PlayerView[] players, Settings settings,
+                                                                 long tick, ThreadLocalRandom rnd) {
+        Map<UUID, LongObjectMap<ActiveChunk>> active = new HashMap<>();
+        for (int p = 0; p < players.length; p++) {
+            for (ChunkView view : players[p].nearby()) {
+                long key = LeafPos.chunkKey(view.chunkX(), view.chunkZ());
+                LongObjectMap<ActiveChunk> worldActive = active.computeIfAbsent(view.worldId(), id -> new LongObjectMap<>());
+
+                ActiveChunk chunk = worldActive.get(key);
+                if (chunk == null) {
+                    chunk = new ActiveChunk(view);
+                    worldActive.put(key, chunk);
+
+                    LongObjectMap<ChunkTimer> worldTimers = timers.computeIfAbsent(view.worldId(), id -> new LongObjectMap<>());
+                    ChunkTimer timer = worldTimers.get(key);
+                    double rate = rate(view.emitters(), settings);
+                    if (timer == null) {
+                        timer = new ChunkTimer(view.worldId(), key);
+                        worldTimers.put(key, timer);
+                        drawTimer(timer, rate, tick, rnd);
+                    } else if (timer.rate != rate) {
+                        // La cola solo tiene chunks cerca de jugadores: quitarlo (lineal) es barato
+                        queue.remove(timer);
+                        drawTimer(timer, rate, tick, rnd);
+                    }
+                }
+                chunk.addPlayer(p);
+            }
+        }
+        return active;
+    }
+
+    private void drawTimer(ChunkTimer timer, double rate, long tick, ThreadLocalRandom rnd) {
+        timer.rate = rate;
+        timer.nextTick = tick + nextDelay(rate, rnd);
+        queue.add(timer);
+    }
+
+    /**
+     * Emisiones esperadas por tick del chunk.
+     */
+    private static double rate(EmitterSet.View emitters, Settings settings) {
+        return emitters.totalWeight() * settings.ratePerWeight() * settings.maxEmission();
+    }
+
+    /**
+     * Tiempo hasta la próxima emisión del chunk (exponencial, en ticks).
+     */
+    private static double nextDelay(double rate, ThreadLocalRandom rnd) {
+        if (rate <= 0.0) {
+            return Double.MAX_VALUE / 4;
+        }
+        return -Math.log(1.0 - rnd.nextDouble()) / rate;
+    }
+}
@@ -0,0 +1,103 @@
+package com.extracraft.extraleaves;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Control adaptativo de los presupuestos de partículas (particles.adaptive).
+ *
+ *  - Servidor: si el MSPT medio pasa de target-mspt (o el TPS baja de min-tps) la escala
+ *    baja un 25%; con margen (MSPT < 80% del objetivo) sube poco a poco hasta 1. Escala
+ *    la tasa de emisión y los topes.
+ *  - Jugador: por encima de high-ping acepta menos emisiones, en proporción al ping.
+ *
+ * Solo hilo principal.
+ */
+final class ParticleThrottle {
+
+    private static final double DECREASE_FACTOR = 0.75;
+    private static final double INCREASE_STEP = 0.05;
+    private static final double HEADROOM = 0.8;
+
+    /**
+     * Presupuestos efectivos en este momento (para /extraleaves stats).
+     */
+    record Budget(boolean enabled, double scale, double mspt, double tps, int maxPerTick, int maxPerPlayer) {
+    }
+
+    private boolean enabled = true;
+    private double targetMspt = 40.0;
+    private double minTps = 18.0;
+    private double minScale = 0.1;
+    private int highPing = 150;
+
+    private double scale = 1.0;
+    private double lastMspt;
+    private double lastTps = 20.0;
+
+    void configure(ConfigurationSection sec) {
+        scale = 1.0;
+        if (sec == null) {
+            enabled = true;
+            targetMspt = 40.0;
+            minTps = 18.0;
+            minScale = 0.1;
+            highPing = 150;
+            return;
+        }
+
+        enabled = sec.getBoolean("enabled", true);
+        targetMspt = Math.max(1.0, sec.getDouble("target-mspt", 40.0));
+        minTps = Math.max(0.0, sec.getDouble("min-tps", 18.0));
+        minScale = Math.min(1.0, Math.max(0.0, sec.getDouble("min-scale", 0.1)));
+        highPing = Math.max(0, sec.getInt("high-ping", 150));
+    }
+
+    /**
+     * Lee MSPT/TPS y ajusta la escala. Llamar una vez por segundo.
+     */
+    void update() {
+        lastMspt = Bukkit.getAverageTickTime();
+        double[] tps = Bukkit.getTPS();
+        lastTps = tps == null || tps.length == 0 ? 20.0 : tps[0];
+
+        if (!enabled) {
+            scale = 1.0;
+            return;
+        }
+
+        if (lastMspt > targetMspt || lastTps < minTps) {
+            scale = Math.max(minScale, scale * DECREASE_FACTOR);
+        } else if (lastMspt < targetMspt * HEADROOM) {
+            scale = Math.min(1.0, scale + INCREASE_STEP);
+        }
+    }
+
+    /**
+     * Presupuesto global escalado (mínimo 1 para que no se corte del todo).
+     */
+    int scaled(int base) {
+        return Math.max(1, (int) Math.round(base * scale));
+    }
+
+    /**
+     * Escala de carga actual (minScale..1) para la tasa de emisión.
+     */
+    double rateScale() {
+        return scale;
+    }
+
+    /**
+     * Parte de las emisiones que acepta un jugador: 1, o highPing / ping con ping alto.
+     */
+    double pingFactor(int ping) {
+        if (!enabled || highPing <= 0 || ping <= highPing) {
+            return 1.0;
+        }
+        return Math.max(minScale, (double) highPing / ping);
+    }
+
+    Budget budget(int maxPerTick, int maxPerPlayer) {
+        return new Budget(enabled, scale, lastMspt, lastTps, scaled(maxPerTick), scaled(maxPerPlayer));
+    }
+}